@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.modules.profile;
+
+import emily.main.Launcher;
+import emily.util.ImagePipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render time of the v3 profile image
+ * <p>
+ * run with {@code mvn -P benchmark verify}
+ * <ul>
+ * <li>uncachedAssets: loads the background images and creates the fonts for every image, like before the assets were cached</li>
+ * <li>cachedAssets: draws and encodes the image with the assets kept in memory</li>
+ * <li>cachedResult: the same image requested again, served from the rendered images</li>
+ * </ul>
+ * The avatar is read from the resources once, downloading it is left out of all three.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ProfileImageBenchmark {
+    private static final String NAME = "Benchmark";
+    private static final long USER_ID = 123456789012345678L;
+    private static final double LEVEL = Math.log(1234);
+    private static final int XP_PERCENT = (int) ((LEVEL % 1D) * 100D);
+    private static final String KEY = USER_ID + ":" + NAME;
+    private BufferedImage avatar;
+
+    @Setup
+    public void setup() throws IOException {
+        avatar = ImageIO.read(Launcher.class.getClassLoader().getResource("default_profile.jpg"));
+        ProfileImageV3.putRendered(KEY, ImagePipeline.encodePng(ProfileImageV3.draw(NAME, USER_ID, avatar, LEVEL, XP_PERCENT)));
+    }
+
+    @Benchmark
+    public byte[] uncachedAssets() throws IOException {
+        ProfileAssets.clear();
+        return ImagePipeline.encodePng(ProfileImageV3.draw(NAME, USER_ID, avatar, LEVEL, XP_PERCENT));
+    }
+
+    @Benchmark
+    public byte[] cachedAssets() throws IOException {
+        return ImagePipeline.encodePng(ProfileImageV3.draw(NAME, USER_ID, avatar, LEVEL, XP_PERCENT));
+    }
+
+    @Benchmark
+    public byte[] cachedResult() {
+        return ProfileImageV3.getRendered(KEY);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.build;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Runs while compiling and writes the implementations of the classes which are otherwise found by scanning the classpath
+ * to META-INF/emily/registry/[base class name], one class name per line.
+ * Read at runtime by {@link emily.util.ClassRegistry}
+ * <p>
+ * A compile may only see part of the sources, so the lists are merged with the ones already in the output:
+ * entries which still resolve to a class are kept unless the class was compiled again and no longer qualifies.
+ */
+@SupportedAnnotationTypes("*")
+public class RegistryProcessor extends AbstractProcessor {
+    public static final String REGISTRY_PATH = "META-INF/emily/registry/";
+    private static final String[] BASE_TYPES = {
+            "emily.core.AbstractCommand",
+            "emily.core.AbstractService",
+            "emily.games.AbstractGame",
+            "emily.modules.pathofexile.IPoEAnalyzePart",
+    };
+    private final Map<String, Set<String>> found = new TreeMap<>();
+    //binary names of all classes in this compilation
+    private final Set<String> compiled = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            write();
+            return false;
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            collect(element);
+        }
+        return false;
+    }
+
+    private void collect(Element element) {
+        if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+            return;
+        }
+        TypeElement type = (TypeElement) element;
+        compiled.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+        if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+            TypeMirror erased = processingEnv.getTypeUtils().erasure(type.asType());
+            for (String baseName : BASE_TYPES) {
+                TypeElement base = processingEnv.getElementUtils().getTypeElement(baseName);
+                if (base != null && !type.equals(base)
+                        && processingEnv.getTypeUtils().isAssignable(erased, processingEnv.getTypeUtils().erasure(base.asType()))) {
+                    found.computeIfAbsent(baseName, k -> new TreeSet<>())
+                            .add(processingEnv.getElementUtils().getBinaryName(type).toString());
+                }
+            }
+        }
+        for (Element enclosed : type.getEnclosedElements()) {
+            collect(enclosed);
+        }
+    }
+
+    private void write() {
+        for (String baseName : BASE_TYPES) {
+            Set<String> existing = readExisting(baseName);
+            Set<String> classes = new TreeSet<>();
+            for (String className : existing) {
+                if (!compiled.contains(className) && resolves(className)) {
+                    classes.add(className);
+                }
+            }
+            classes.addAll(found.getOrDefault(baseName, Collections.emptySet()));
+            if (classes.isEmpty() && existing.isEmpty()) {
+                continue;
+            }
+            try {
+                FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", REGISTRY_PATH + baseName);
+                try (Writer writer = file.openWriter()) {
+                    for (String className : classes) {
+                        writer.write(className);
+                        writer.write('\n');
+                    }
+                }
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not write the class registry for " + baseName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the class names in the registry written by an earlier compilation, empty if there is none
+     */
+    private Set<String> readExisting(String baseName) {
+        Set<String> classes = new TreeSet<>();
+        try {
+            FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", REGISTRY_PATH + baseName);
+            try (BufferedReader reader = new BufferedReader(file.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        classes.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException ignored) {
+        }
+        return classes;
+    }
+
+    /**
+     * @param className binary name of a class
+     * @return whether the class still exists
+     */
+    private boolean resolves(String className) {
+        return processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) != null;
+    }
+}
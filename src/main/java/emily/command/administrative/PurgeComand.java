@@ -19,6 +19,7 @@ package emily.command.administrative;
 import emily.command.CommandVisibility;
 import emily.core.AbstractCommand;
 import emily.handler.Template;
+import emily.handler.discord.RestQueue;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.permission.SimpleRank;
@@ -287,9 +288,9 @@ public class PurgeComand extends AbstractCommand {
                 messagesToDelete.add(message);
                 for (int index = 0; index < messagesToDelete.size(); index += MAX_BULK_SIZE) {
                     if (messagesToDelete.size() - index < 2) {
-                        bot.queue.add(messagesToDelete.get(index).delete());
+                        bot.queue.add(RestQueue.Priority.CLEANUP, channel.getIdLong(), messagesToDelete.get(index).delete());
                     } else {
-                        bot.queue.add(channel.deleteMessages(messagesToDelete.subList(index, Math.min(index + MAX_BULK_SIZE, messagesToDelete.size()))));
+                        bot.queue.add(RestQueue.Priority.CLEANUP, channel.getIdLong(), channel.deleteMessages(messagesToDelete.subList(index, Math.min(index + MAX_BULK_SIZE, messagesToDelete.size()))));
                     }
                     try {
                         Thread.sleep(2000L);
@@ -302,7 +303,7 @@ public class PurgeComand extends AbstractCommand {
                 messagesToDelete.add(message);
                 for (Message toDelete : messagesToDelete) {
                     if (toDelete.getAuthor().getId().equals(channel.getJDA().getSelfUser().getId()))
-                        bot.queue.add(toDelete.delete());
+                        bot.queue.add(RestQueue.Priority.CLEANUP, channel.getIdLong(), toDelete.delete());
                     try {
                         Thread.sleep(500L);
                     } catch (Exception ignored) {
@@ -28,7 +28,6 @@ import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.User;
 
-import java.io.File;
 
 /**
  * Profile command
@@ -82,15 +81,15 @@ public class ProfileCommand extends AbstractCommand {
             }
         }
         try {
-            File file;
+            byte[] image;
             if (args.length > 0 && args[0].equals("v1")) {
                 ProfileImageV1 version1 = new ProfileImageV1(user);
-                file = version1.getProfileImage();
+                image = version1.getProfileImage();
             } else {
                 ProfileImageV3 version2 = new ProfileImageV3(user);
-                file = version2.getProfileImage();
+                image = version2.getProfileImage();
             }
-            bot.queue.add(channel.sendFile(file, null), (message) -> file.delete());
+            bot.queue.add(channel.sendFile(image, "profile_" + user.getId() + ".png", null));
         } catch (Exception e) {
             System.out.println(e.getMessage());
             e.getStackTrace();
@@ -17,16 +17,24 @@
 package emily.command.creator;
 
 import emily.core.AbstractCommand;
+import emily.db.WebDb;
 import emily.db.controllers.CGuild;
 import emily.db.controllers.CGuildMember;
 import emily.db.controllers.CUser;
 import emily.db.model.OGuildMember;
+import emily.handler.CommandHandler;
+import emily.handler.MusicCache;
 import emily.handler.Template;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
+import emily.main.Launcher;
 import emily.permission.SimpleRank;
+import emily.service.UserRankingSystemService;
+import emily.threads.CommandUsageThread;
 import emily.util.Emojibet;
+import emily.util.HttpCache;
 import emily.util.Misc;
+import emily.util.YTUtil;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Message;
@@ -61,7 +69,7 @@ public class DebugCommand extends AbstractCommand {
     @Override
     public String[] getUsage() {
         return new String[]{
-                "fixusernames, fixrelations, youtube ",
+                "fixusernames, fixrelations, youtube, db, usage, events, ids, rest, music, durations, ranking, roles, logs, http ",
         };
     }
 
@@ -90,6 +98,39 @@ public class DebugCommand extends AbstractCommand {
             case "fixrelations":
                 fixMemberships(bot, channel);
                 return "";
+            case "db":
+                return Emojibet.INFORMATION + " database pool: `" + WebDb.get().getPool() + "`";
+            case "usage":
+                CommandUsageThread usage = CommandHandler.getCommandUsage();
+                return String.format("%s command usage: `pending logs: %s, pending users: %s, written: %s, dropped: %s`",
+                        Emojibet.INFORMATION, usage.getPendingLogs(), usage.getPendingUsers(), usage.getWritten(), usage.getDropped());
+            case "events":
+                return String.format("%s event dispatch shard %02d: `%s`", Emojibet.INFORMATION, bot.getShardId(), bot.getEventManager().getDispatcher());
+            case "durations":
+                new Thread(() -> {
+                    try {
+                        int fixed = YTUtil.backfillDurations(4);
+                        bot.out.sendAsyncMessage(channel, String.format("%s filled in the duration of %s tracks", Emojibet.OKE_SIGN, fixed));
+                    } catch (InterruptedException e) {
+                        bot.out.sendAsyncMessage(channel, Emojibet.WARNING + " duration backfill interrupted");
+                    }
+                }, "duration-backfill").start();
+                return Emojibet.INFORMATION + " looking up the missing track durations";
+            case "http":
+                return String.format("%s http cache: `%s`", Emojibet.INFORMATION, HttpCache.shared());
+            case "logs":
+                return String.format("%s event log: `%s`", Emojibet.INFORMATION, Launcher.getGrayLog() == null ? "not active" : Launcher.getGrayLog());
+            case "roles":
+                return String.format("%s role queue shard %02d: `%s`", Emojibet.INFORMATION, bot.getShardId(), bot.out.getRoleQueue());
+            case "ranking":
+                return String.format("%s ranking sync: `%s`", Emojibet.INFORMATION, UserRankingSystemService.getLastRun());
+            case "music":
+                return String.format("%s music cache: `%s`", Emojibet.INFORMATION, MusicCache.getStats());
+            case "rest":
+                return String.format("%s rest queue shard %02d: ```%n%s```", Emojibet.INFORMATION, bot.getShardId(), bot.queue);
+            case "ids":
+                return String.format("%s id caches: ```%n%s%n%s%n%s%n%s```", Emojibet.INFORMATION,
+                        CUser.getIdCache(), CUser.getDiscordIdCache(), CGuild.getIdCache(), CGuild.getDiscordIdCache());
             case "yt":
             case "youtube":
                 if (updating) {
@@ -16,41 +16,42 @@
 
 package emily.command.fun;
 
-import com.google.gson.JsonObject;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonParser;
 import emily.core.AbstractCommand;
 import emily.handler.Template;
 import emily.main.DiscordBot;
+import emily.util.HttpCache;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.User;
 import org.apache.commons.lang3.StringEscapeUtils;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * !catfact
  * gives you a random cat fact
  */
 public class CatFactCommand extends AbstractCommand {
+    private static final int FACTS_PER_REQUEST = 50;
+
     public CatFactCommand() {
         super();
     }
 
+    /**
+     * picks a fact from a batch which is cached for a while
+     *
+     * @return a cat fact or null if there are none
+     */
     public static String getCatFact() {
         try {
-            URL loginurl = new URL("http://catfacts-api.appspot.com/api/facts");
-            URLConnection yc = loginurl.openConnection();
-            yc.setConnectTimeout(10 * 1000);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            yc.getInputStream()));
-            String inputLine = in.readLine();
-            JsonParser parser = new JsonParser();
-            JsonObject array = parser.parse(inputLine).getAsJsonObject();
-            return ":cat:  " + array.get("facts").getAsString();
+            String response = HttpCache.shared().get(HttpCache.Source.CAT_FACTS, "http://catfacts-api.appspot.com/api/facts?number=" + FACTS_PER_REQUEST);
+            JsonArray facts = new JsonParser().parse(response).getAsJsonObject().get("facts").getAsJsonArray();
+            if (facts.size() == 0) {
+                return null;
+            }
+            return ":cat:  " + facts.get(ThreadLocalRandom.current().nextInt(facts.size())).getAsString();
         } catch (Exception e) {
             System.out.println(e);
         }
@@ -16,29 +16,27 @@
 
 package emily.command.fun;
 
-import com.google.gson.JsonObject;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonParser;
 import emily.core.AbstractCommand;
 import emily.handler.CommandHandler;
 import emily.handler.Template;
 import emily.main.DiscordBot;
+import emily.util.HttpCache;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.User;
 import org.apache.commons.lang3.StringEscapeUtils;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLEncoder;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * !joke
  * gives you a random chuck norris joke with chuck norris replaced by <@user>
  */
 public class JokeCommand extends AbstractCommand {
+    private static final int JOKES_PER_REQUEST = 50;
+
     public JokeCommand() {
         super();
     }
@@ -70,10 +68,7 @@ public class JokeCommand extends AbstractCommand {
             if (new Random().nextInt(100) < 80) {
                 joketxt = CommandHandler.getCommand("reddit").execute(bot, new String[]{"jokes"}, channel, author);
             } else {
-                try {
-                    joketxt = getJokeFromWeb(URLEncoder.encode(author.getName(), "UTF-8"));
-                } catch (UnsupportedEncodingException ignored) {
-                }
+                joketxt = getJokeFromWeb(author.getName());
             }
             if (joketxt != null && !joketxt.isEmpty()) {
                 bot.out.editAsync(message, StringEscapeUtils.unescapeHtml4(joketxt.replace(author.getName(), "<@" + author.getId() + ">")));
@@ -84,18 +79,18 @@ public class JokeCommand extends AbstractCommand {
         return "";
     }
 
+    /**
+     * picks a joke from a batch which is cached for a while, the name in the joke is replaced with the username
+     */
     private String getJokeFromWeb(String username) {
         try {
-            URL loginurl = new URL("http://api.icndb.com/jokes/random?firstName=&lastName=" + username);
-            URLConnection yc = loginurl.openConnection();
-            yc.setConnectTimeout(10 * 1000);
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            yc.getInputStream()));
-            String inputLine = in.readLine();
-            JsonParser parser = new JsonParser();
-            JsonObject array = parser.parse(inputLine).getAsJsonObject();
-            return array.get("value").getAsJsonObject().get("joke").getAsString();
+            String response = HttpCache.shared().get(HttpCache.Source.JOKES, "http://api.icndb.com/jokes/random/" + JOKES_PER_REQUEST);
+            JsonArray jokes = new JsonParser().parse(response).getAsJsonObject().get("value").getAsJsonArray();
+            if (jokes.size() == 0) {
+                return null;
+            }
+            String joke = jokes.get(ThreadLocalRandom.current().nextInt(jokes.size())).getAsJsonObject().get("joke").getAsString();
+            return joke.replace("Chuck Norris", username).replace("Chuck", username);
         } catch (Exception e) {
             System.out.println(e);
         }
@@ -17,14 +17,13 @@
 package emily.command.fun;
 
 import com.google.api.client.repackaged.com.google.common.base.Joiner;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
 import emily.command.CommandVisibility;
 import emily.core.AbstractCommand;
 import emily.handler.Template;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.util.DisUtil;
+import emily.util.ImagePipeline;
 import emily.util.Misc;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.MessageChannel;
@@ -36,16 +35,11 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 
 
 public class MemeCommand extends AbstractCommand {
@@ -131,25 +125,20 @@ public class MemeCommand extends AbstractCommand {
                 topText = memeText[0];
             }
         }
+        byte[] image;
         try {
-            Future<HttpResponse<String>> response = Unirest.get("https://memegen.link/" + type + "/" + URLEncoder.encode(topText, "UTF-8") + "/" + URLEncoder.encode(botText, "UTF-8") + ".jpg").asStringAsync();
-            HttpResponse<String> theImg = response.get();
-            BufferedImage image = ImageIO.read(theImg.getRawBody());
-            File memeFile = new File("tmp/meme_" + channel.getId() + ".jpg");
-            memeFile.getParentFile().mkdirs();
-            if (memeFile.exists()) {
-                memeFile.delete();
-            }
-            if (image != null) {
-                ImageIO.write(image, "png", memeFile);
-                bot.queue.add(channel.sendFile(memeFile, null), message -> memeFile.delete());
-                return "";
-            }
-        } catch (InterruptedException | ExecutionException | IOException e) {
+            image = ImagePipeline.download("https://memegen.link/" + type + "/" + URLEncoder.encode(topText, "UTF-8") + "/" + URLEncoder.encode(botText, "UTF-8") + ".jpg", BotConfig.IMAGE_MAX_DOWNLOAD_SIZE);
+        } catch (IOException e) {
             e.printStackTrace();
             return "No memes for you :(";
         }
-        return "The site seems to be down :thinking:";
+        try {
+            ImagePipeline.Upload upload = ImagePipeline.prepare(image, "meme_" + type);
+            bot.queue.add(channel.sendFile(upload.data, upload.fileName, null));
+            return "";
+        } catch (IOException e) {
+            return "The site seems to be down :thinking:";
+        }
     }
 
     private void loadMemeOptions() {
@@ -24,6 +24,7 @@ import emily.modules.reddit.RedditScraper;
 import emily.modules.reddit.pojo.Image;
 import emily.modules.reddit.pojo.ImagePreview;
 import emily.modules.reddit.pojo.Post;
+import emily.util.ImagePipeline;
 import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.ChannelType;
@@ -33,11 +34,7 @@ import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.utils.PermissionUtil;
 import org.apache.commons.lang3.StringEscapeUtils;
 
-import javax.imageio.ImageIO;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -122,10 +119,9 @@ public class RedditCommand extends AbstractCommand {
                 return Template.get("permission_missing_attach_files");
             }
             for (Image image : preview.images) {
-                try (InputStream in = new URL(StringEscapeUtils.unescapeHtml4(image.source.url)).openStream()) {
-                    File outputfile = new File("tmp_" + channel.getId() + ".jpg");
-                    ImageIO.write(ImageIO.read(in), "jpg", outputfile);
-                    bot.queue.add(channel.sendFile(outputfile, new MessageBuilder().append(post.data.title).build()), message -> outputfile.delete());
+                try {
+                    ImagePipeline.Upload upload = ImagePipeline.fromUrl(StringEscapeUtils.unescapeHtml4(image.source.url), "reddit_" + post.data.id);
+                    bot.queue.add(channel.sendFile(upload.data, upload.fileName, new MessageBuilder().append(post.data.title).build()));
                     return "";
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -17,22 +17,18 @@
 package emily.command.fun;
 
 import com.google.api.client.repackaged.com.google.common.base.Joiner;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.JsonNode;
-import com.mashape.unirest.http.Unirest;
 import emily.core.AbstractCommand;
 import emily.handler.Template;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.util.Emojibet;
+import emily.util.HttpCache;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.User;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.net.URLEncoder;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 /**
  * !ud
@@ -75,9 +71,8 @@ public class UrbanDictionaryCommand extends AbstractCommand {
         }
         String search = Joiner.on(" ").join(args);
         try {
-            Future<HttpResponse<JsonNode>> future = Unirest.get("http://api.urbandictionary.com/v0/define?term=" + URLEncoder.encode(search, "UTF-8")).asJsonAsync();
-            HttpResponse<JsonNode> json = future.get(30, TimeUnit.SECONDS);
-            JSONArray list = json.getBody().getObject().getJSONArray("list");
+            String json = HttpCache.shared().get(HttpCache.Source.URBAN_DICTIONARY, "http://api.urbandictionary.com/v0/define?term=" + URLEncoder.encode(search.toLowerCase(), "UTF-8"));
+            JSONArray list = new JSONObject(json).getJSONArray("list");
             if (list.length() == 0) {
                 return Template.get("command_ud_no_results", search);
             }
@@ -36,8 +36,10 @@ import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.utils.PermissionUtil;
 
+import java.awt.Color;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 
 public class ServerCommand extends AbstractCommand {
     public ServerCommand() {
@@ -81,6 +83,7 @@ public class ServerCommand extends AbstractCommand {
                 return Template.get("command_config_cant_find_guild");
             }
         }
+        CompletableFuture<Color> iconColor = GfxUtil.getAverageColorAsync(guild.getIconUrl());
         EmbedBuilder b = new EmbedBuilder();
         b.setAuthor(guild.getName(), guild.getIconUrl(), guild.getIconUrl());
         b.setThumbnail(guild.getIconUrl());
@@ -93,14 +96,16 @@ public class ServerCommand extends AbstractCommand {
         );
         ImmutableSet<OnlineStatus> onlineStatus = Sets.immutableEnumSet(OnlineStatus.ONLINE, OnlineStatus.IDLE, OnlineStatus.DO_NOT_DISTURB);
         long online = guild.getMembers().stream().filter(member -> onlineStatus.contains(member.getOnlineStatus())).count();
-        b.setColor(GfxUtil.getAverageColor(guild.getIconUrl()));
         b.addField("Members", String.format("%s online\n%s in total", online, guild.getMembers().size()), true);
         b.addField("Channels", String.format("%s text channels\n%s voice channels", guild.getTextChannels().size(), guild.getVoiceChannels().size()), true);
         b.addField("Created by", String.format("%s\\#%s", guild.getOwner().getUser().getName(), guild.getOwner().getUser().getDiscriminator()), true);
         b.addField("My prefix", String.format("`%s`", DisUtil.getCommandPrefix(guild)), true);
         b.addField("Created On", new SimpleDateFormat("dd MMMM yyyy").format(new Date(guild.getCreationTime().toInstant().toEpochMilli())), true);
         b.setFooter(guild.getSelfMember().getEffectiveName(), channel.getJDA().getSelfUser().getAvatarUrl());
-        bot.queue.add(channel.sendMessage(b.build()));
+        iconColor.thenAccept(color -> {
+            b.setColor(color);
+            bot.queue.add(channel.sendMessage(b.build()));
+        });
         return "";
     }
 }
\ No newline at end of file
@@ -29,11 +29,13 @@ import emily.db.model.OPlaylist;
 import emily.guildsettings.GSetting;
 import emily.handler.CommandHandler;
 import emily.handler.GuildSettings;
+import emily.handler.MusicCache;
 import emily.handler.MusicPlayerHandler;
 import emily.handler.Template;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.permission.SimpleRank;
+import emily.threads.YoutubeThread;
 import emily.util.Misc;
 import emily.util.YTSearch;
 import emily.util.YTUtil;
@@ -53,7 +55,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * !play
@@ -61,6 +63,8 @@ import java.util.function.Consumer;
  * yea.. play is probably not a good name at the moment
  */
 public class PlayCommand extends AbstractCommand implements ICommandCleanup {
+    //min time in ms between edits of the download progress message
+    private static final long PROGRESS_UPDATE_INTERVAL = 2_500L;
     private YTSearch ytSearch;
 
     public PlayCommand() {
@@ -261,47 +265,33 @@ public class PlayCommand extends AbstractCommand implements ICommandCleanup {
         } else {
             filecheck = new File(YTUtil.getOutputPath(videoCode));
         }
-        final String finalVideoCode = videoCode;
-        Consumer<Message> consumer = message -> bot.getContainer().downloadRequest(finalVideoCode, videoTitle, message, msg -> {
-            try {
-                File targetFile = new File(YTUtil.getOutputPath(videoCode));
-                if (targetFile.exists()) {
-                    OMusic record2 = CMusic.findByYoutubeId(videoCode);
-                    if (msg != null) {
-                        bot.out.editBlocking(msg, ":notes: Found *" + record2.youtubeTitle + "* and added it to the queue");
+        if (!MusicCache.request(filecheck)) {
+            YoutubeThread.Download download = bot.getContainer().downloadRequest(videoCode, videoTitle,
+                    useTemplates ? YoutubeThread.Priority.REQUEST : YoutubeThread.Priority.PREFETCH);
+            if (useTemplates) {
+                bot.queue.add(channel.sendMessage(Template.get("music_downloading_in_queue", videoTitle)), message -> {
+                    if (message != null) {
+                        showProgress(bot, message, download, videoTitle);
                     }
-                    player.addToQueue(targetFile.toPath().toRealPath().toString(), invoker);
-                } else {
-                    if (player.getPlaylist().isGlobalList()) {
-                        if (msg != null) {
-                            bot.out.editBlocking(msg, "Download failed, the song is likely too long or region locked!");
-                        }
-                    } else {
-                        CPlaylist.removeFromPlayList(player.getPlaylist().id, record.id);
-                        if (msg != null) {
-                            bot.out.editBlocking(msg, String.format("the video `%s` (%s) is unavailable and its removed from the playlist '%s'",
-                                    finalVideoCode, record.youtubeTitle, player.getPlaylist().title));
+                    download.getFuture().whenComplete((file, error) -> {
+                        if (error == null) {
+                            onDownloaded(player, bot, invoker, record, videoCode, message);
+                        } else if (message != null) {
+                            bot.out.editAsync(message, download.isCancelled()
+                                    ? String.format("The download of *%s* got cancelled", videoTitle)
+                                    : String.format("The download of *%s* failed", videoTitle));
                         }
-                        player.forceSkip();
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                if (msg != null) {
-                    bot.out.editBlocking(msg, (Template.get("music_file_error")));
-                }
-            }
-        });
-        boolean isInProgress = bot.getContainer().isInProgress(videoCode);
-        if (!filecheck.exists() && !isInProgress) {
-            if (useTemplates) {
-                bot.queue.add(channel.sendMessage(Template.get("music_downloading_in_queue", videoTitle)), consumer);
+                    });
+                });
             } else {
-                consumer.accept(null);
+                player.addPrefetch(download);
+                download.getFuture().whenComplete((file, error) -> {
+                    if (error == null) {
+                        onDownloaded(player, bot, invoker, record, videoCode, null);
+                    }
+                });
             }
             return "";
-        } else if (YTUtil.isValidYoutubeCode(videoCode) && isInProgress) {
-            return Template.get(channel, "music_downloading_in_progress", videoTitle);
         }
         try {
             String path = filecheck.toPath().toRealPath().toString();
@@ -317,4 +307,50 @@ public class PlayCommand extends AbstractCommand implements ICommandCleanup {
             return Template.get("music_file_error");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * keeps the download message up to date with the progress of the download
+     */
+    private static void showProgress(DiscordBot bot, Message message, YoutubeThread.Download download, String videoTitle) {
+        AtomicLong lastUpdate = new AtomicLong(0);
+        download.onProgress(percentage -> {
+            long now = System.currentTimeMillis();
+            long last = lastUpdate.get();
+            if (percentage >= 100 || now - last < PROGRESS_UPDATE_INTERVAL || !lastUpdate.compareAndSet(last, now)) {
+                return;
+            }
+            bot.out.editAsync(message, String.format(":arrow_down: Downloading *%s* `%s%%`", videoTitle, percentage));
+        });
+    }
+
+    private static void onDownloaded(MusicPlayerHandler player, DiscordBot bot, User invoker, OMusic record, String videoCode, Message msg) {
+        try {
+            File targetFile = new File(YTUtil.getOutputPath(videoCode));
+            if (targetFile.exists()) {
+                OMusic record2 = CMusic.findByYoutubeId(videoCode);
+                if (msg != null) {
+                    bot.out.editAsync(msg, ":notes: Found *" + record2.youtubeTitle + "* and added it to the queue");
+                }
+                player.addToQueue(targetFile.toPath().toRealPath().toString(), invoker);
+            } else {
+                if (player.getPlaylist().isGlobalList()) {
+                    if (msg != null) {
+                        bot.out.editAsync(msg, "Download failed, the song is likely too long or region locked!");
+                    }
+                } else {
+                    CPlaylist.removeFromPlayList(player.getPlaylist().id, record.id);
+                    if (msg != null) {
+                        bot.out.editAsync(msg, String.format("the video `%s` (%s) is unavailable and its removed from the playlist '%s'",
+                                videoCode, record.youtubeTitle, player.getPlaylist().title));
+                    }
+                    player.forceSkip();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (msg != null) {
+                bot.out.editAsync(msg, (Template.get("music_file_error")));
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import emily.db.model.OChannel;
 import emily.db.model.OServiceVariable;
 import emily.db.model.OSubscription;
 import emily.db.model.QActiveSubscriptions;
+import emily.handler.discord.RestQueue;
 import emily.main.BotContainer;
 import emily.main.DiscordBot;
 import emily.main.Launcher;
@@ -78,7 +79,7 @@ public abstract class AbstractService {
 
     protected void sendTo(TextChannel channel, MessageEmbed message) {
         if (PermissionUtil.checkPermission(channel, channel.getGuild().getSelfMember(), Permission.MESSAGE_EMBED_LINKS)) {
-            bot.getShardFor(channel.getGuild().getId()).queue.add(channel.sendMessage(message));
+            bot.getShardFor(channel.getGuild().getId()).queue.add(RestQueue.Priority.STATS, channel.getIdLong(), channel.sendMessage(message));
         }
     }
 
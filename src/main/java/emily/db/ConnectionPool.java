@@ -0,0 +1,345 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of jdbc connections
+ * <p>
+ * At most {@code maxSize} connections are handed out at the same time, callers beyond that wait up to
+ * {@code acquireTimeout} milliseconds for one to be released.
+ * Connections which have been idle for a while are validated before they are handed out again,
+ * broken connections are discarded and transparently replaced by a fresh one.
+ */
+public class ConnectionPool {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long acquireTimeout;
+    private final long validateAfterIdle;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong acquired = new AtomicLong(0);
+    private final AtomicLong waitNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong discarded = new AtomicLong(0);
+    private volatile boolean closed = false;
+
+    /**
+     * @param factory           creates new physical connections
+     * @param maxSize           maximum amount of connections in use at the same time
+     * @param acquireTimeout    max time in milliseconds to wait for a free connection
+     * @param validateAfterIdle idle time in milliseconds after which a connection is validated before reuse
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long acquireTimeout, long validateAfterIdle) {
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.acquireTimeout = acquireTimeout;
+        this.validateAfterIdle = validateAfterIdle;
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * Borrows a connection from the pool, closing the returned connection hands it back to the pool
+     *
+     * @return a connection
+     * @throws SQLException when no connection could be obtained within the timeout
+     */
+    public Connection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException(String.format("Timed out after %sms waiting for a database connection (%s/%s in use)", acquireTimeout, active.get(), maxSize));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        acquired.incrementAndGet();
+        try {
+            Connection connection = takeIdle();
+            if (connection == null) {
+                connection = factory.create();
+                created.incrementAndGet();
+            }
+            active.incrementAndGet();
+            return wrap(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection takeIdle() {
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - candidate.since < validateAfterIdle || isValid(candidate.connection)) {
+                return candidate.connection;
+            }
+            discard(candidate.connection);
+        }
+        return null;
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(Connection connection) {
+        discarded.incrementAndGet();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void release(Connection connection, boolean broken) {
+        active.decrementAndGet();
+        try {
+            if (closed || broken || connection.isClosed()) {
+                discard(connection);
+            } else {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idle.offerFirst(new IdleConnection(connection));
+            }
+        } catch (SQLException e) {
+            discard(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle connections and refuses new requests, connections in use are closed when released
+     */
+    public void close() {
+        closed = true;
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            discard(candidate.connection);
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, new ConnectionHandler(connection));
+    }
+
+    /**
+     * wraps a result set so that closing it (or its statement) also hands the connection back to the pool
+     *
+     * @param resultSet  the result set to wrap
+     * @param statement  the statement which created the result set
+     * @param connection the pooled connection the statement was created on
+     * @return the wrapped result set
+     */
+    static ResultSet bindToConnection(ResultSet resultSet, PreparedStatement statement, Connection connection) {
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable closer = () -> {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                }
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        };
+        PreparedStatement boundStatement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        closer.run();
+                        return null;
+                    }
+                    return invoke(statement, method, args);
+                });
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            try {
+                                resultSet.close();
+                            } finally {
+                                closer.run();
+                            }
+                            return null;
+                        case "getStatement":
+                            return boundStatement;
+                    }
+                    return invoke(resultSet, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * @return amount of threads currently waiting for a connection
+     */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = acquired.get();
+        return count == 0 ? 0D : waitNanos.get() / (double) count / 1_000_000D;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000D;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active: %s/%s, idle: %s, waiting: %s, acquired: %s, avg wait: %.2fms, max wait: %.2fms, timeouts: %s, created: %s, discarded: %s",
+                getActive(), maxSize, getIdle(), getWaiting(), getAcquired(), getAverageWaitMillis(), getMaxWaitMillis(), getTimeouts(), getCreated(), getDiscarded());
+    }
+
+    /**
+     * Creates new physical connections for the pool
+     */
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long since;
+
+        private IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Delegates everything to the physical connection, except for close which returns it to the pool
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private volatile boolean broken = false;
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        release(connection, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + connection.toString();
+            }
+            if (released.get()) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException && isConnectionError((SQLException) cause)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+
+        /**
+         * SQLState class 08 indicates the connection itself failed
+         */
+        private boolean isConnectionError(SQLException e) {
+            return e.getSQLState() != null && e.getSQLState().startsWith("08");
+        }
+    }
+}
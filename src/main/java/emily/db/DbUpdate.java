@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -97,20 +98,22 @@ public class DbUpdate {
         if (currentVersion == highestVersion) {
             return true;
         }
-        SQLFileRunner runner = new SQLFileRunner(WebDb.get().getConnection(), true, true);
-        boolean hasUpgrade = versionMap.containsKey(currentVersion);
-        while (hasUpgrade) {
-            DbVersion version = versionMap.get(currentVersion);
-            System.out.println(version.file);
-            try (InputStreamReader reader = new InputStreamReader(getClass().getClassLoader().getResourceAsStream(version.file));
-                 BufferedReader br = new BufferedReader(reader)) {
-                runner.runScript(br);
-            } catch (IOException e) {
-                e.printStackTrace();
+        try (Connection connection = adapter.getConnection()) {
+            SQLFileRunner runner = new SQLFileRunner(connection, true, true);
+            boolean hasUpgrade = versionMap.containsKey(currentVersion);
+            while (hasUpgrade) {
+                DbVersion version = versionMap.get(currentVersion);
+                System.out.println(version.file);
+                try (InputStreamReader reader = new InputStreamReader(getClass().getClassLoader().getResourceAsStream(version.file));
+                     BufferedReader br = new BufferedReader(reader)) {
+                    runner.runScript(br);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                currentVersion = version.toVersion;
+                saveDbVersion(currentVersion);
+                hasUpgrade = versionMap.containsKey(currentVersion);
             }
-            currentVersion = version.toVersion;
-            saveDbVersion(currentVersion);
-            hasUpgrade = versionMap.containsKey(currentVersion);
         }
         return true;
     }
@@ -143,23 +146,25 @@ public class DbUpdate {
 //    }
 
     private int getCurrentVersion() throws SQLException {
-        DatabaseMetaData metaData = adapter.getConnection().getMetaData();
         int dbVersion = 0;
-        try (ResultSet rs = metaData.getTables(null, null, "commands", null)) {
-            if (!rs.next()) {
-                return 0;
+        try (Connection connection = adapter.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet rs = metaData.getTables(null, null, "commands", null)) {
+                if (!rs.next()) {
+                    return 0;
+                }
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-        try (ResultSet rs = metaData.getTables(null, null, "bot_meta", null)) {
-            if (!rs.next()) {
-                return dbVersion;
+            try (ResultSet rs = metaData.getTables(null, null, "bot_meta", null)) {
+                if (!rs.next()) {
+                    return dbVersion;
+                }
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
         }
         try (ResultSet rs = adapter.select("SELECT * FROM bot_meta WHERE meta_name = ?", "db_version")) {
             if (rs.next()) {
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.db;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A size bounded cache mapping a long to a long, used for mapping discord ids to internal ids and back
+ * <p>
+ * Entries live in primitive arrays split over a number of segments, when a segment is full the least recently used
+ * entry (approximated with the clock algorithm) is evicted.
+ * Concurrent misses for the same key are loaded only once.
+ */
+public class IdCache {
+    /**
+     * returned by a loader when there is nothing to cache
+     */
+    public static final long NOT_FOUND = Long.MIN_VALUE;
+    private static final int SEGMENTS = 16;
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+    private final String name;
+    private final Segment[] segments;
+    private final ConcurrentHashMap<Long, Object> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * @param name       name of the cache, shown in the stats
+     * @param maxEntries max amount of entries to keep
+     */
+    public IdCache(String name, int maxEntries) {
+        this.name = name;
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 28) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value or {@link #NOT_FOUND}
+     */
+    public long get(long key) {
+        int hash = hash(key);
+        long value = segmentFor(hash).get(key, hash);
+        if (value == NOT_FOUND) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Retrieves the value, loading it when it's not cached.
+     * Only one thread loads a key at the same time, others wait for its result
+     *
+     * @param key    the key
+     * @param loader loads the value, may return {@link #NOT_FOUND} which is not cached
+     * @return the value or {@link #NOT_FOUND}
+     */
+    public long get(long key, LongUnaryOperator loader) {
+        long value = get(key);
+        if (value != NOT_FOUND) {
+            return value;
+        }
+        Object lock = loading.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                int hash = hash(key);
+                value = segmentFor(hash).get(key, hash);
+                if (value == NOT_FOUND) {
+                    value = loader.applyAsLong(key);
+                    if (value != NOT_FOUND) {
+                        put(key, value);
+                    }
+                }
+                return value;
+            }
+        } finally {
+            loading.remove(key, lock);
+        }
+    }
+
+    public void put(long key, long value) {
+        int hash = hash(key);
+        if (segmentFor(hash).put(key, hash, value)) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    public void remove(long key) {
+        int hash = hash(key);
+        segmentFor(hash).remove(key, hash);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return segments.length * segments[0].maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        long total = hits.get() + misses.get();
+        return String.format("%s: %s/%s entries, hits: %s, misses: %s (%.1f%% hit), evictions: %s",
+                name, size(), capacity(), hits.get(), misses.get(), total == 0 ? 0D : hits.get() * 100D / total, evictions.get());
+    }
+
+    /**
+     * open addressing table with linear probing, kept at most half full
+     */
+    private static class Segment {
+        private final int maxSize;
+        private final int mask;
+        private final long[] keys;
+        private final long[] values;
+        private final byte[] flags;
+        private int size = 0;
+        private int hand = 0;
+
+        private Segment(int maxSize) {
+            this.maxSize = maxSize;
+            int tableSize = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+            mask = tableSize - 1;
+            keys = new long[tableSize];
+            values = new long[tableSize];
+            flags = new byte[tableSize];
+        }
+
+        private int indexOf(long key, int hash) {
+            int i = hash & mask;
+            while (flags[i] != 0) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        private synchronized long get(long key, int hash) {
+            int i = indexOf(key, hash);
+            if (i < 0) {
+                return NOT_FOUND;
+            }
+            flags[i] = USED | REFERENCED;
+            return values[i];
+        }
+
+        /**
+         * @return whether an entry was evicted to make room
+         */
+        private synchronized boolean put(long key, int hash, long value) {
+            int i = indexOf(key, hash);
+            if (i >= 0) {
+                values[i] = value;
+                flags[i] = USED | REFERENCED;
+                return false;
+            }
+            boolean evicted = false;
+            if (size >= maxSize) {
+                evict();
+                evicted = true;
+                i = indexOf(key, hash);
+            }
+            i = -1 - i;
+            keys[i] = key;
+            values[i] = value;
+            flags[i] = USED | REFERENCED;
+            size++;
+            return evicted;
+        }
+
+        private synchronized void remove(long key, int hash) {
+            int i = indexOf(key, hash);
+            if (i >= 0) {
+                delete(i);
+            }
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(flags, (byte) 0);
+            size = 0;
+        }
+
+        /**
+         * clock sweep: skip (and clear) recently used entries, evict the first one which wasn't
+         */
+        private void evict() {
+            while (true) {
+                int i = hand;
+                hand = (hand + 1) & mask;
+                if (flags[i] == 0) {
+                    continue;
+                }
+                if ((flags[i] & REFERENCED) != 0) {
+                    flags[i] = USED;
+                    continue;
+                }
+                delete(i);
+                return;
+            }
+        }
+
+        /**
+         * removes slot i, shifting back later entries of the probe chain so lookups keep working
+         */
+        private void delete(int i) {
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (flags[j] == 0) {
+                    break;
+                }
+                int home = hash(keys[j]) & mask;
+                boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!between) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    flags[i] = flags[j];
+                    i = j;
+                }
+            }
+            flags[i] = 0;
+            size--;
+        }
+    }
+}
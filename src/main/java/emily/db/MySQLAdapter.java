@@ -16,9 +16,10 @@
 
 package emily.db;
 
-import com.mysql.jdbc.jdbc2.optional.MysqlConnectionPoolDataSource;
+import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
 import emily.core.ExitCode;
 import emily.exceptions.UnimplementedParameterException;
+import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.main.Launcher;
 
@@ -30,25 +31,29 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.Calendar;
+import java.util.List;
 
 public class MySQLAdapter {
 
+    private static final long VALIDATE_AFTER_IDLE = 30_000L;
     protected String DB_NAME;
     protected String DB_USER;
     protected String DB_ADRES;
     protected String DB_PASSWORD;
-    private Connection c;
+    private final ConnectionPool pool;
+    private volatile boolean connectedOnce = false;
 
     public MySQLAdapter(String server, String databaseUser, String databasePassword, String databaseName) {
         DB_ADRES = server;
         DB_USER = databaseUser;
         DB_PASSWORD = databasePassword;
         DB_NAME = databaseName;
+        pool = new ConnectionPool(this::createConnection, BotConfig.DB_POOL_SIZE, BotConfig.DB_POOL_TIMEOUT, VALIDATE_AFTER_IDLE);
     }
 
-    private Connection createConnection() {
+    private Connection createConnection() throws SQLException {
         try {
-            MysqlConnectionPoolDataSource dataSource = new MysqlConnectionPoolDataSource();
+            MysqlDataSource dataSource = new MysqlDataSource();
             dataSource.setUser(DB_USER);
             dataSource.setPassword(DB_PASSWORD);
             dataSource.setServerName(DB_ADRES);
@@ -56,31 +61,85 @@ public class MySQLAdapter {
             dataSource.setDatabaseName(DB_NAME);
             dataSource.setZeroDateTimeBehavior("convertToNull");
             dataSource.setUseUnicode(true);
-            return dataSource.getConnection();
+            //send a jdbc batch as one multi row statement instead of a statement per row
+            dataSource.setRewriteBatchedStatements(true);
+            Connection connection = dataSource.getConnection();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("SET NAMES utf8mb4");
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                System.out.println("COULD NOT SET utf8mb4");
+            }
+            connectedOnce = true;
+            return connection;
         } catch (SQLException e) {
             System.out.println(e.getMessage());
-            DiscordBot.LOGGER.error("Can't connect to the database! Make sure the database settings are corrent and the database server is running AND the database `" + DB_NAME + "` exists");
-            Launcher.stop(ExitCode.SHITTY_CONFIG);
+            if (!connectedOnce) {
+                DiscordBot.LOGGER.error("Can't connect to the database! Make sure the database settings are corrent and the database server is running AND the database `" + DB_NAME + "` exists");
+                Launcher.stop(ExitCode.SHITTY_CONFIG);
+            }
+            throw e;
         }
-        return null;
     }
 
-    public Connection getConnection() {
-        if (c == null) {
-            c = createConnection();
-        }
-        return c;
+    /**
+     * Borrows a connection from the pool, the connection must be closed to return it to the pool
+     *
+     * @return a pooled connection
+     */
+    public Connection getConnection() throws SQLException {
+        return pool.acquire();
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 
+    /**
+     * closes the idle connections of the pool
+     */
+    public void shutdown() {
+        pool.close();
+    }
+
+    /**
+     * Runs a select query, closing the returned result set (or its statement) returns the connection to the pool
+     */
     public ResultSet select(String sql, Object... params) throws SQLException {
-        PreparedStatement query = null;
-        query = getConnection().prepareStatement(sql);
-        resolveParameters(query, params);
-        return query.executeQuery();
+        return select(false, sql, params);
+    }
+
+    /**
+     * Like {@link #select(String, Object...)}, but streams the rows from the server instead of buffering the whole result
+     * The connection is occupied until the result set is closed, so don't run other queries while iterating
+     */
+    public ResultSet selectStreaming(String sql, Object... params) throws SQLException {
+        return select(true, sql, params);
+    }
+
+    private ResultSet select(boolean streaming, String sql, Object... params) throws SQLException {
+        Connection connection = getConnection();
+        try {
+            PreparedStatement query = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                if (streaming) {
+                    query.setFetchSize(Integer.MIN_VALUE);
+                }
+                resolveParameters(query, params);
+                return ConnectionPool.bindToConnection(query.executeQuery(), query, connection);
+            } catch (SQLException | RuntimeException e) {
+                query.close();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
     }
 
     public int query(String sql) throws SQLException {
-        try (Statement stmt = getConnection().createStatement()) {
+        try (Connection connection = getConnection();
+             Statement stmt = connection.createStatement()) {
             return stmt.executeUpdate(sql);
         }
     }
@@ -118,20 +177,43 @@ public class MySQLAdapter {
     }
 
     public int query(String sql, Object... params) throws SQLException {
-        try (PreparedStatement query = getConnection().prepareStatement(sql)) {
+        try (Connection connection = getConnection();
+             PreparedStatement query = connection.prepareStatement(sql)) {
             resolveParameters(query, params);
             return query.executeUpdate();
         }
     }
 
+    /**
+     * Executes the same statement for each set of parameters as a single jdbc batch
+     *
+     * @param sql       the statement
+     * @param batchArgs parameters for each execution
+     * @return update counts per execution, rewritten batches report {@link Statement#SUCCESS_NO_INFO}
+     */
+    public int[] queryBatch(String sql, List<Object[]> batchArgs) throws SQLException {
+        if (batchArgs.isEmpty()) {
+            return new int[0];
+        }
+        try (Connection connection = getConnection();
+             PreparedStatement query = connection.prepareStatement(sql)) {
+            for (Object[] params : batchArgs) {
+                resolveParameters(query, params);
+                query.addBatch();
+            }
+            return query.executeBatch();
+        }
+    }
+
     public int insert(String sql, Object... params) throws SQLException {
-        try (PreparedStatement query = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = getConnection();
+             PreparedStatement query = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             resolveParameters(query, params);
             query.executeUpdate();
-            ResultSet rs = query.getGeneratedKeys();
-
-            if (rs.next()) {
-                return rs.getInt(1);
+            try (ResultSet rs = query.getGeneratedKeys()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
             }
         }
         return -1;
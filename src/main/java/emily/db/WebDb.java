@@ -18,13 +18,15 @@ package emily.db;
 
 import emily.main.BotConfig;
 
+import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WebDb {
 
     private static final String DEFAULT_CONNECTION = "discord";
-    private static HashMap<String, MySQLAdapter> connections = new HashMap<>();
+    private static Map<String, MySQLAdapter> connections = new ConcurrentHashMap<>();
 
     public static MySQLAdapter get(String key) {
         if (connections.containsKey(key)) {
@@ -39,13 +41,22 @@ public class WebDb {
     }
 
     public static void init() {
-        connections.clear();
+        shutdown();
         connections.put("discord", new MySQLAdapter(BotConfig.DB_HOST, BotConfig.DB_USER, BotConfig.DB_PASS, BotConfig.DB_NAME));
-        try {
-            get().query("SET NAMES utf8mb4");
+        try (Connection ignored = get().getConnection()) {
+            //opens the first connection of the pool, stops the bot if the database is unreachable
         } catch (SQLException e) {
             System.out.println(e.getMessage());
-            System.out.println("COULD NOT SET utf8mb4");
         }
     }
+
+    /**
+     * closes the connection pools
+     */
+    public static void shutdown() {
+        for (MySQLAdapter adapter : connections.values()) {
+            adapter.shutdown();
+        }
+        connections.clear();
+    }
 }
\ No newline at end of file
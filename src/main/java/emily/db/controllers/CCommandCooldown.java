@@ -22,9 +22,11 @@ import emily.db.model.OCommandCooldown;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * data communication with the controllers `service_variables`
+ * data communication with the controllers `command_cooldown`
  */
 public class CCommandCooldown {
 
@@ -44,6 +46,28 @@ public class CCommandCooldown {
         return record;
     }
 
+    /**
+     * retrieves all cooldowns which were last used after a point in time
+     *
+     * @param since unix timestamp in seconds
+     * @return list of cooldowns
+     */
+    public static List<OCommandCooldown> getAllSince(long since) {
+        List<OCommandCooldown> list = new ArrayList<>();
+        try (ResultSet rs = WebDb.get().select(
+                "SELECT command, target_id, target_type, last_time  " +
+                        "FROM command_cooldown " +
+                        "WHERE last_time > ?", since)) {
+            while (rs.next()) {
+                list.add(fillRecord(rs));
+            }
+            rs.getStatement().close();
+        } catch (Exception e) {
+            Logger.fatal(e);
+        }
+        return list;
+    }
+
     private static OCommandCooldown fillRecord(ResultSet resultset) throws SQLException {
         OCommandCooldown record = new OCommandCooldown();
         record.command = resultset.getString("command");
@@ -63,4 +87,23 @@ public class CCommandCooldown {
             e.printStackTrace();
         }
     }
+
+    /**
+     * saves multiple cooldowns in a single batch
+     *
+     * @param records the cooldowns to save
+     */
+    public static void insertOrUpdate(List<OCommandCooldown> records) {
+        List<Object[]> batch = new ArrayList<>(records.size());
+        for (OCommandCooldown record : records) {
+            batch.add(new Object[]{record.command, record.targetId, record.targetType, record.lastTime, record.lastTime});
+        }
+        try {
+            WebDb.get().queryBatch(
+                    "INSERT INTO command_cooldown(command, target_id, target_type, last_time) " +
+                            "VALUES (?,?,?,?) ON DUPLICATE KEY UPDATE last_time = ?", batch);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -17,8 +17,10 @@
 package emily.db.controllers;
 
 import emily.db.WebDb;
+import emily.db.model.OCommandLog;
 
 import java.sql.Date;
+import java.util.List;
 
 /**
  * data communication with the controllers `command_log`
@@ -36,4 +38,31 @@ public class CCommandLog {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Inserts multiple command log records with a single multi-row insert
+     *
+     * @param records the records to save
+     */
+    public static void saveLogs(List<OCommandLog> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO command_log(user_id, guild, command, args, execute_date) VALUES ");
+        Object[] params = new Object[records.size() * 5];
+        int i = 0;
+        for (OCommandLog record : records) {
+            sql.append(i == 0 ? "(?,?,?,?,?)" : ",(?,?,?,?,?)");
+            params[i++] = record.userId;
+            params[i++] = record.guildId;
+            params[i++] = record.command;
+            params[i++] = record.args;
+            params[i++] = record.executeDate;
+        }
+        try {
+            WebDb.get().query(sql.toString(), params);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
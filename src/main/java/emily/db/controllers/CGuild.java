@@ -17,8 +17,10 @@
 package emily.db.controllers;
 
 import emily.core.Logger;
+import emily.db.IdCache;
 import emily.db.WebDb;
 import emily.db.model.OGuild;
+import emily.main.BotConfig;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 
@@ -26,16 +28,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * data communication with the controllers `servers`
  * Created on 10-8-2016
  */
 public class CGuild {
-    private static Map<Long, Integer> guildIdCache = new ConcurrentHashMap<>();
-    private static Map<Integer, Long> discordIdCache = new ConcurrentHashMap<>();
+    private static final IdCache guildIdCache = new IdCache("guild ids", BotConfig.GUILD_ID_CACHE_SIZE);
+    private static final IdCache discordIdCache = new IdCache("guild discord ids", BotConfig.GUILD_ID_CACHE_SIZE);
 
     /**
      * Retrieves the internal guild id for {@link MessageChannel} channel
@@ -55,27 +55,53 @@ public class CGuild {
     }
 
     public static int getCachedId(long discordId) {
-        if (!guildIdCache.containsKey(discordId)) {
+        long id = guildIdCache.get(discordId, key -> {
             OGuild server = findBy(discordId);
             if (server.id == 0) {
                 server.discord_id = discordId;
                 server.name = Long.toString(discordId);
                 insert(server);
             }
-            guildIdCache.put(discordId, server.id);
-        }
-        return guildIdCache.get(discordId);
+            if (server.id == 0) {
+                return IdCache.NOT_FOUND;
+            }
+            discordIdCache.put(server.id, discordId);
+            return server.id;
+        });
+        return id == IdCache.NOT_FOUND ? 0 : (int) id;
     }
 
     public static String getCachedDiscordId(int id) {
-        if (!discordIdCache.containsKey(id)) {
+        long discordId = discordIdCache.get(id, key -> {
             OGuild server = findById(id);
-            if (server.id == 0) {
-                return "0";
+            return server.id == 0 ? IdCache.NOT_FOUND : server.discord_id;
+        });
+        return discordId == IdCache.NOT_FOUND ? "0" : Long.toString(discordId);
+    }
+
+    /**
+     * fills the id caches with the active guilds, so they don't have to be looked up one by one
+     */
+    public static void warmUpCache() {
+        try (ResultSet rs = WebDb.get().select("SELECT id, discord_id FROM guilds WHERE active = 1")) {
+            while (rs.next()) {
+                int id = rs.getInt("id");
+                long discordId = rs.getLong("discord_id");
+                guildIdCache.put(discordId, id);
+                discordIdCache.put(id, discordId);
             }
-            discordIdCache.put(id, server.discord_id);
+            rs.getStatement().close();
+        } catch (Exception e) {
+            Logger.fatal(e);
         }
-        return Long.toString(discordIdCache.get(id));
+    }
+
+    public static IdCache getIdCache() {
+        return guildIdCache;
+    }
+
+    public static IdCache getDiscordIdCache() {
+        return discordIdCache;
     }
 
     public static List<OGuild> getMostUsedGuildsFor(int userId) {
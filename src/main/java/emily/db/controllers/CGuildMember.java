@@ -22,6 +22,10 @@ import emily.db.model.OGuildMember;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * data communication with the controllers `guild_member`
@@ -69,4 +73,46 @@ public class CGuildMember {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Retrieves the join dates of all known members of a guild in one query
+     *
+     * @param guildId internal guild id
+     * @return discord user id -> join date in milliseconds
+     */
+    public static Map<Long, Long> getJoinDates(int guildId) {
+        Map<Long, Long> joinDates = new HashMap<>();
+        try (ResultSet rs = WebDb.get().select(
+                "SELECT u.discord_id, gm.join_date " +
+                        "FROM guild_member gm " +
+                        "JOIN users u ON u.id = gm.user_id " +
+                        "WHERE gm.guild_id = ? AND gm.join_date IS NOT NULL", guildId)) {
+            while (rs.next()) {
+                joinDates.put(rs.getLong("discord_id"), rs.getTimestamp("join_date").getTime());
+            }
+            rs.getStatement().close();
+        } catch (Exception e) {
+            Logger.fatal(e);
+        }
+        return joinDates;
+    }
+
+    /**
+     * inserts/updates multiple records in one batch
+     *
+     * @param records the records to save
+     */
+    public static void insertOrUpdate(List<OGuildMember> records) {
+        List<Object[]> batch = new ArrayList<>(records.size());
+        for (OGuildMember record : records) {
+            batch.add(new Object[]{record.guildId, record.userId, record.joinDate, record.joinDate});
+        }
+        try {
+            WebDb.get().queryBatch(
+                    "INSERT INTO guild_member(guild_id, user_id, join_date) " +
+                            "VALUES (?,?,?) ON DUPLICATE KEY UPDATE join_date = ?", batch);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
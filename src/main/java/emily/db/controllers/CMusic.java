@@ -19,6 +19,7 @@ package emily.db.controllers;
 import emily.core.Logger;
 import emily.db.WebDb;
 import emily.db.model.OMusic;
+import emily.handler.RadioIndex;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -110,6 +111,7 @@ public class CMusic {
                     record.title, record.artist, record.lastplaydate, record.banned, record.playCount, record.lastManualPlaydate,
                     record.fileExists, record.duration, record.id
             );
+            RadioIndex.update(record);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -127,11 +129,33 @@ public class CMusic {
                             "VALUES (?,?,?,?,?,?,?,?,?,?,?)",
                     record.youtubecode, record.filename, record.youtubeTitle.substring(0, Math.min(100, record.youtubeTitle.length())),
                     record.title, record.artist, record.lastplaydate, record.playCount, record.lastManualPlaydate, record.fileExists, record.duration, record.banned);
+            RadioIndex.update(record);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * marks the tracks as no longer being on disk
+     *
+     * @param youtubeCodes the video codes of the removed files
+     */
+    public static void markFilesRemoved(List<String> youtubeCodes) {
+        for (int offset = 0; offset < youtubeCodes.size(); offset += 500) {
+            List<String> chunk = youtubeCodes.subList(offset, Math.min(offset + 500, youtubeCodes.size()));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            try {
+                WebDb.get().query("UPDATE music SET file_exists = 0 WHERE youtubecode IN (" + placeholders + ")", chunk.toArray());
+                RadioIndex.removeByCode(chunk);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public static void registerPlayRequest(int musicId) {
         try {
             WebDb.get().query(
@@ -25,15 +25,43 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * data communication with the controllers `playlist`
+ * <p>
+ * The items of playlists which are being played are kept in memory, ordered by when they were last played.
+ * last_played changes are written back in batches.
  */
 public class CPlaylist {
+    //cursors which haven't been used for this long are dropped
+    private static final long CURSOR_IDLE_TIME = TimeUnit.MINUTES.toMillis(30);
+    //cursors are reloaded after this long, to pick up banned tracks and changes made elsewhere
+    private static final long CURSOR_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+    private static final long FLUSH_INTERVAL = 5_000L;
+    private static final Map<Integer, Cursor> cursors = new ConcurrentHashMap<>();
+    //pending last_played writes, key is playlist id << 32 | music id
+    private static final Map<Long, Long> pendingLastPlayed = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "playlist-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static Random rng = new Random();
 
+    static {
+        writer.scheduleWithFixedDelay(CPlaylist::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
     public static OPlaylist findBy(int userId) {
         OPlaylist s = new OPlaylist();
         try (ResultSet rs = WebDb.get().select(
@@ -153,44 +181,88 @@ public class CPlaylist {
      * @return absolute path to file
      */
     public static String getRandomMusic(int playlistId) {
-        List<String> potentialSongs = new ArrayList<>();
-        try (ResultSet rs = WebDb.get().select(
-                "SELECT m.id, m.filename " +
-                        "FROM music m " +
-                        "JOIN playlist_item pi ON pi.music_id = m.id " +
-                        "JOIN playlist pl ON pl.id = pi.playlist_id  " +
-                        "WHERE m.banned = 0 AND pl.id = ? " +
-                        "ORDER BY pi.last_played ASC " +
-                        "LIMIT 5", playlistId)) {
-            while (rs.next()) {
-                potentialSongs.add(rs.getString("filename"));
+        return getCursor(playlistId).pick(rng, 5);
+    }
+
+    public static String getNextMusic(int playlistId) {
+        return getCursor(playlistId).pick(rng, 1);
+    }
+
+    private static Cursor getCursor(int playlistId) {
+        Cursor cursor = cursors.get(playlistId);
+        if (cursor == null || System.currentTimeMillis() - cursor.loadedAt > CURSOR_MAX_AGE) {
+            Cursor loaded = loadCursor(playlistId);
+            if (loaded == null) {
+                //keep using what we had, the next request tries to load it again
+                return cursor != null ? cursor : new Cursor();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            cursors.put(playlistId, loaded);
+            return loaded;
         }
-        if (!potentialSongs.isEmpty()) {
-            return potentialSongs.get(rng.nextInt(potentialSongs.size()));
-        }
-        return null;
+        return cursor;
     }
 
-    public static String getNextMusic(int playlistId) {
-        String filename = null;
+    /**
+     * @return the items of the playlist or null if they could not be loaded
+     */
+    private static Cursor loadCursor(int playlistId) {
+        Cursor cursor = new Cursor();
         try (ResultSet rs = WebDb.get().select(
-                "SELECT m.id, m.filename " +
+                "SELECT m.id, m.filename, pi.last_played " +
                         "FROM music m " +
                         "JOIN playlist_item pi ON pi.music_id = m.id " +
-                        "JOIN playlist pl ON pl.id = pi.playlist_id  " +
-                        "WHERE m.banned = 0 AND pl.id = ? " +
-                        "ORDER BY pi.last_played ASC " +
-                        "LIMIT 1", playlistId)) {
+                        "WHERE m.banned = 0 AND pi.playlist_id = ? ", playlistId)) {
             while (rs.next()) {
-                filename = rs.getString("filename");
+                int musicId = rs.getInt("id");
+                long lastPlayed = rs.getLong("last_played");
+                Long pending = pendingLastPlayed.get(itemKey(playlistId, musicId));
+                if (pending != null) {
+                    lastPlayed = Math.max(lastPlayed, pending);
+                }
+                cursor.add(new CursorItem(musicId, rs.getString("filename"), lastPlayed));
             }
+            rs.getStatement().close();
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * drops the in memory copy of a playlist, the next request reloads it
+     */
+    private static void invalidate(int playlistId) {
+        cursors.remove(playlistId);
+    }
+
+    private static long itemKey(int playlistId, int musicId) {
+        return ((long) playlistId << 32) | (musicId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * writes the pending last_played changes and drops idle cursors
+     */
+    public static void flush() {
+        if (!pendingLastPlayed.isEmpty()) {
+            List<Object[]> batch = new ArrayList<>();
+            List<Map.Entry<Long, Long>> written = new ArrayList<>();
+            for (Map.Entry<Long, Long> entry : pendingLastPlayed.entrySet()) {
+                long key = entry.getKey();
+                batch.add(new Object[]{entry.getValue(), (int) (key >>> 32), (int) key});
+                written.add(entry);
+            }
+            try {
+                WebDb.get().queryBatch("UPDATE playlist_item SET last_played = ? WHERE playlist_id = ? AND music_id = ?", batch);
+                for (Map.Entry<Long, Long> entry : written) {
+                    pendingLastPlayed.remove(entry.getKey(), entry.getValue());
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
-        return filename;
+        long now = System.currentTimeMillis();
+        cursors.values().removeIf(cursor -> now - cursor.lastUsed > CURSOR_IDLE_TIME);
     }
 
     /**
@@ -207,6 +279,7 @@ public class CPlaylist {
                             "VALUES (?,?,?) ON DUPLICATE KEY UPDATE last_played=last_played ",
                     playlistId, musicId, 0
             );
+            invalidate(playlistId);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -247,6 +320,7 @@ public class CPlaylist {
                     "DELETE FROM playlist_item WHERE playlist_id = ?",
                     playlistId
             );
+            invalidate(playlistId);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -265,6 +339,7 @@ public class CPlaylist {
                     "DELETE FROM playlist_item WHERE playlist_id = ? AND music_id = ?",
                     playlistId, musicId
             );
+            invalidate(playlistId);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -279,11 +354,11 @@ public class CPlaylist {
      * @param musicId    id of the music recordf
      */
     public static void updateLastPlayed(int playlistId, int musicId) {
-        try {
-            WebDb.get().query("UPDATE playlist_item SET last_played = ? WHERE playlist_id = ? AND music_id = ?",
-                    System.currentTimeMillis() / 1000L, playlistId, musicId);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        long now = System.currentTimeMillis() / 1000L;
+        pendingLastPlayed.put(itemKey(playlistId, musicId), now);
+        Cursor cursor = cursors.get(playlistId);
+        if (cursor != null) {
+            cursor.played(musicId, now);
         }
     }
 
@@ -345,8 +420,64 @@ public class CPlaylist {
                     "DELETE FROM playlist_item WHERE music_id = ?",
                     musicId
             );
+            cursors.clear();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private static class CursorItem {
+        private final int musicId;
+        private final String filename;
+        private final long lastPlayed;
+
+        private CursorItem(int musicId, String filename, long lastPlayed) {
+            this.musicId = musicId;
+            this.filename = filename;
+            this.lastPlayed = lastPlayed;
+        }
+    }
+
+    /**
+     * the items of a playlist, least recently played first
+     */
+    private static class Cursor {
+        private final TreeSet<CursorItem> items = new TreeSet<>(Comparator.<CursorItem>comparingLong(item -> item.lastPlayed).thenComparingInt(item -> item.musicId));
+        private final Map<Integer, CursorItem> byMusicId = new HashMap<>();
+        private final long loadedAt = System.currentTimeMillis();
+        private volatile long lastUsed = loadedAt;
+
+        private synchronized void add(CursorItem item) {
+            CursorItem previous = byMusicId.put(item.musicId, item);
+            if (previous != null) {
+                items.remove(previous);
+            }
+            items.add(item);
+        }
+
+        private synchronized void played(int musicId, long timestamp) {
+            CursorItem item = byMusicId.get(musicId);
+            if (item != null) {
+                add(new CursorItem(musicId, item.filename, timestamp));
+            }
+        }
+
+        /**
+         * @param candidates pick randomly from this many least recently played items
+         * @return filename of the picked item or null if the playlist is empty
+         */
+        private synchronized String pick(Random random, int candidates) {
+            lastUsed = System.currentTimeMillis();
+            if (items.isEmpty()) {
+                return null;
+            }
+            int index = random.nextInt(Math.min(candidates, items.size()));
+            for (CursorItem item : items) {
+                if (index-- == 0) {
+                    return item.filename;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -18,16 +18,18 @@ package emily.db.controllers;
 
 import com.vdurmont.emoji.EmojiParser;
 import emily.core.Logger;
+import emily.db.IdCache;
 import emily.db.WebDb;
 import emily.db.model.OUser;
+import emily.main.BotConfig;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * data communication with the controllers `users`
@@ -35,15 +37,15 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class CUser {
 
-    private static Map<String, Integer> userCache = new ConcurrentHashMap<>();
-    private static Map<Integer, String> discordCache = new ConcurrentHashMap<>();
+    private static final IdCache userCache = new IdCache("user ids", BotConfig.USER_ID_CACHE_SIZE);
+    private static final IdCache discordCache = new IdCache("user discord ids", BotConfig.USER_ID_CACHE_SIZE);
 
     public static int getCachedId(String discordId) {
         return getCachedId(discordId, discordId);
     }
 
     public static int getCachedId(String discordId, String username) {
-        if (!userCache.containsKey(discordId)) {
+        long id = userCache.get(Long.parseLong(discordId), key -> {
             OUser user = findBy(discordId);
             if (user.id == 0) {
                 user.discord_id = discordId;
@@ -54,20 +56,103 @@ public class CUser {
                 user.name = EmojiParser.parseToAliases(username);
                 update(user);
             }
-            userCache.put(discordId, user.id);
+            if (user.id == 0) {
+                return IdCache.NOT_FOUND;
+            }
+            discordCache.put(user.id, key);
+            return user.id;
+        });
+        return id == IdCache.NOT_FOUND ? 0 : (int) id;
+    }
+
+    /**
+     * Resolves the internal ids of many users at once, users which aren't known yet are created
+     *
+     * @param users discord id -> username
+     * @return discord id -> internal id, users which could not be stored are missing
+     */
+    public static Map<Long, Integer> getCachedIds(Map<Long, String> users) {
+        Map<Long, Integer> ids = new HashMap<>();
+        List<Long> unresolved = new ArrayList<>();
+        for (Long discordId : users.keySet()) {
+            long id = userCache.get(discordId);
+            if (id != IdCache.NOT_FOUND) {
+                ids.put(discordId, (int) id);
+            } else {
+                unresolved.add(discordId);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return ids;
+        }
+        findIds(unresolved, ids);
+        List<Object[]> batch = new ArrayList<>();
+        List<Long> created = new ArrayList<>();
+        long now = System.currentTimeMillis() / 1000L;
+        for (Long discordId : unresolved) {
+            if (!ids.containsKey(discordId)) {
+                batch.add(new Object[]{String.valueOf(discordId), 0, EmojiParser.parseToAliases(users.get(discordId)), 0, 0, now});
+                created.add(discordId);
+            }
+        }
+        if (!batch.isEmpty()) {
+            try {
+                WebDb.get().queryBatch(
+                        "INSERT INTO users(discord_id,commands_used, name,banned, permission_mask, last_currency_retrieval) " +
+                                "VALUES (?,?,?,?,?,?)", batch);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            findIds(created, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * looks up the internal ids of the users in chunks and caches them
+     */
+    private static void findIds(List<Long> discordIds, Map<Long, Integer> ids) {
+        for (int offset = 0; offset < discordIds.size(); offset += 500) {
+            List<Long> chunk = discordIds.subList(offset, Math.min(offset + 500, discordIds.size()));
+            StringBuilder placeholders = new StringBuilder();
+            Object[] params = new Object[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+                params[i] = String.valueOf(chunk.get(i));
+            }
+            try (ResultSet rs = WebDb.get().select(
+                    "SELECT id, discord_id FROM users WHERE discord_id IN (" + placeholders + ")", params)) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    long discordId = Long.parseLong(rs.getString("discord_id"));
+                    ids.put(discordId, id);
+                    userCache.put(discordId, id);
+                    discordCache.put(id, discordId);
+                }
+                rs.getStatement().close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
-        return userCache.get(discordId);
     }
 
     public static String getCachedDiscordId(int userId) {
-        if (!discordCache.containsKey(userId)) {
+        long discordId = discordCache.get(userId, key -> {
             OUser user = findById(userId);
             if (user.id == 0) {
-                return "";
+                return IdCache.NOT_FOUND;
             }
-            discordCache.put(userId, user.discord_id);
-        }
-        return discordCache.get(userId);
+            return Long.parseLong(user.discord_id);
+        });
+        return discordId == IdCache.NOT_FOUND ? "" : Long.toString(discordId);
+    }
+
+    public static IdCache getIdCache() {
+        return userCache;
+    }
+
+    public static IdCache getDiscordIdCache() {
+        return discordCache;
     }
 
 
@@ -140,6 +225,23 @@ public class CUser {
         }
     }
 
+    /**
+     * Adds the coalesced command usage counts to the users
+     *
+     * @param usage user id -> amount of commands used since the last call
+     */
+    public static void registerCommandUse(Map<Integer, Integer> usage) {
+        List<Object[]> batch = new ArrayList<>(usage.size());
+        for (Map.Entry<Integer, Integer> entry : usage.entrySet()) {
+            batch.add(new Object[]{entry.getValue(), entry.getKey()});
+        }
+        try {
+            WebDb.get().queryBatch("UPDATE users SET commands_used = commands_used + ? WHERE id = ? ", batch);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void update(OUser record) {
         if (record.id == 0) {
             insert(record);
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.event;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a bounded pool of workers while keeping the order of tasks with the same key
+ * <p>
+ * Tasks with the same key (eg. the same guild) run one after another, tasks with different keys run in parallel.
+ * The amount of queued tasks is limited, see {@link OverloadPolicy} for what happens when the limit is reached.
+ */
+public class EventDispatcher {
+    /**
+     * max amount of tasks a worker runs for one key before giving other keys a turn
+     */
+    private static final int MAX_BATCH = 32;
+    private final ExecutorService workers;
+    private final Map<Long, KeyQueue> queues = new ConcurrentHashMap<>();
+    private final int maxQueued;
+    private final int shedThreshold;
+    private final OverloadPolicy policy;
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private final AtomicLong dispatched = new AtomicLong(0);
+    private final AtomicLong shed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong latencyNanos = new AtomicLong(0);
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+    private final Object capacity = new Object();
+
+    /**
+     * @param threads       amount of worker threads
+     * @param maxQueued     max amount of tasks waiting to be run
+     * @param policy        what to do when the queue is full
+     * @param threadFactory factory for the worker threads
+     */
+    public EventDispatcher(int threads, int maxQueued, OverloadPolicy policy, ThreadFactory threadFactory) {
+        this.workers = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.shedThreshold = this.maxQueued / 2;
+        this.policy = policy;
+    }
+
+    /**
+     * queues a task
+     *
+     * @param key       tasks with the same key are run in order of submission
+     * @param sheddable whether the task may be dropped once the queue is half full
+     * @param task      the task
+     * @return whether the task was accepted
+     */
+    public boolean submit(long key, boolean sheddable, Runnable task) {
+        if (workers.isShutdown()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (sheddable && queued.get() >= shedThreshold) {
+            shed.incrementAndGet();
+            return false;
+        }
+        if (!reserve()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        maxQueueDepth.accumulateAndGet(queued.get(), Math::max);
+        TimedTask timed = new TimedTask(task);
+        while (true) {
+            KeyQueue queue = queues.computeIfAbsent(key, KeyQueue::new);
+            synchronized (queue) {
+                if (queue.retired) {
+                    continue;
+                }
+                queue.tasks.add(timed);
+                if (!queue.scheduled) {
+                    queue.scheduled = true;
+                    try {
+                        workers.execute(queue);
+                    } catch (RejectedExecutionException e) {
+                        //shut down after the check above, take the task back out
+                        queue.tasks.removeLastOccurrence(timed);
+                        queue.scheduled = false;
+                        if (queue.tasks.isEmpty()) {
+                            queue.retired = true;
+                            queues.remove(key, queue);
+                        }
+                        release();
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * claims a spot in the queue, applying the overload policy when there is none
+     *
+     * @return whether a spot was claimed
+     */
+    private boolean reserve() {
+        while (true) {
+            int current = queued.get();
+            if (current < maxQueued) {
+                if (queued.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (policy == OverloadPolicy.DROP) {
+                return false;
+            }
+            synchronized (capacity) {
+                if (queued.get() >= maxQueued) {
+                    try {
+                        capacity.wait(100L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void release() {
+        if (queued.getAndDecrement() >= maxQueued && policy == OverloadPolicy.BLOCK) {
+            synchronized (capacity) {
+                capacity.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * stops accepting work, the queued tasks are still processed
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getShed() {
+        return shed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return average time in milliseconds a task waited before it started
+     */
+    public double getAverageLatencyMillis() {
+        long count = dispatched.get();
+        return count == 0 ? 0D : latencyNanos.get() / (double) count / 1_000_000D;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000D;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queued: %s/%s (max %s), keys: %s, dispatched: %s, shed: %s, dropped: %s, avg latency: %.2fms, max latency: %.2fms",
+                getQueued(), maxQueued, getMaxQueueDepth(), getActiveKeys(), getDispatched(), getShed(), getDropped(), getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    /**
+     * What to do with new tasks when the queue is full
+     */
+    public enum OverloadPolicy {
+        /**
+         * drop the task
+         */
+        DROP,
+        /**
+         * make the submitting thread wait until there is room, slowing down the gateway
+         */
+        BLOCK;
+
+        public static OverloadPolicy fromString(String name) {
+            for (OverloadPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return DROP;
+        }
+    }
+
+    private static class TimedTask {
+        private final Runnable task;
+        private final long queuedAt;
+
+        private TimedTask(Runnable task) {
+            this.task = task;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * The pending tasks for one key, at most one worker drains it at a time
+     */
+    private class KeyQueue implements Runnable {
+        private final long key;
+        private final ArrayDeque<TimedTask> tasks = new ArrayDeque<>();
+        private boolean scheduled = false;
+        private boolean retired = false;
+
+        private KeyQueue(long key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH || workers.isShutdown(); i++) {
+                TimedTask next;
+                synchronized (this) {
+                    next = tasks.poll();
+                    if (next == null) {
+                        scheduled = false;
+                        retired = true;
+                        queues.remove(key, this);
+                        return;
+                    }
+                }
+                release();
+                long latency = System.nanoTime() - next.queuedAt;
+                latencyNanos.addAndGet(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                dispatched.incrementAndGet();
+                try {
+                    next.task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    retired = true;
+                    queues.remove(key, this);
+                    return;
+                }
+            }
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                //the pool is shutting down, the loop above doesn't stop anymore until the key is empty
+                run();
+            }
+        }
+    }
+}
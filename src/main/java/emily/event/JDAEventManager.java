@@ -18,28 +18,42 @@ package emily.event;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import emily.core.Logger;
+import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.core.events.message.GenericMessageEvent;
+import net.dv8tion.jda.core.events.user.GenericUserEvent;
+import net.dv8tion.jda.core.events.user.UserGameUpdateEvent;
+import net.dv8tion.jda.core.events.user.UserOnlineStatusUpdateEvent;
+import net.dv8tion.jda.core.events.user.UserTypingEvent;
 import net.dv8tion.jda.core.exceptions.PermissionException;
 import net.dv8tion.jda.core.hooks.EventListener;
 import net.dv8tion.jda.core.hooks.IEventManager;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Dispatches the events of a shard to the listeners
+ * <p>
+ * Events of the same guild (or private channel/user when there is no guild) are handled in order,
+ * events of different guilds are handled in parallel on a bounded amount of threads.
+ * Typing and presence updates are the first to be dropped when the shard can't keep up.
+ */
 public class JDAEventManager implements IEventManager {
 
-    private List<Object> listeners = new LinkedList<>();
+    private final List<Object> listeners = new CopyOnWriteArrayList<>();
     private final DiscordBot bot;
-    private final ThreadPoolExecutor threadExecutor;
+    private final EventDispatcher dispatcher;
 
     public JDAEventManager(DiscordBot bot) {
         ThreadFactoryBuilder threadBuilder = new ThreadFactoryBuilder();
         threadBuilder.setNameFormat(String.format("shard-%02d-command-%%d", bot.getShardId()));
-        this.threadExecutor = (ThreadPoolExecutor) Executors.newCachedThreadPool(threadBuilder.build());
+        this.dispatcher = new EventDispatcher(BotConfig.EVENT_WORKER_THREADS, BotConfig.EVENT_MAX_QUEUED,
+                EventDispatcher.OverloadPolicy.fromString(BotConfig.EVENT_OVERLOAD_POLICY), threadBuilder.build());
         this.bot = bot;
     }
 
@@ -58,14 +72,13 @@ public class JDAEventManager implements IEventManager {
 
     @Override
     public void handle(Event event) {
-        threadExecutor.submit(() -> {
+        dispatcher.submit(getOrderingKey(event), isSheddable(event), () -> {
             bot.getContainer().setLastAction(event.getJDA().getShardInfo() == null ? 0 : event.getJDA().getShardInfo().getShardId(), System.currentTimeMillis());
             bot.updateJda(event.getJDA());
             if (!(event.getJDA().getStatus() == JDA.Status.CONNECTED)) {
                 return;
             }
-            List<Object> listenerCopy = new LinkedList<>(listeners);
-            for (Object listener : listenerCopy) {
+            for (Object listener : listeners) {
                 try {
                     ((EventListener) listener).onEvent(event);
                 } catch (PermissionException throwable) {
@@ -79,6 +92,47 @@ public class JDAEventManager implements IEventManager {
         });
     }
 
+    /**
+     * events with the same key are handled in order
+     *
+     * @param event the event
+     * @return the guild id, or the channel/user id for events outside of a guild
+     */
+    private long getOrderingKey(Event event) {
+        if (event instanceof GenericGuildEvent) {
+            return ((GenericGuildEvent) event).getGuild().getIdLong();
+        }
+        if (event instanceof GenericMessageEvent) {
+            Guild guild = ((GenericMessageEvent) event).getGuild();
+            return guild != null ? guild.getIdLong() : ((GenericMessageEvent) event).getChannel().getIdLong();
+        }
+        if (event instanceof GenericUserEvent) {
+            return ((GenericUserEvent) event).getUser().getIdLong();
+        }
+        return 0L;
+    }
+
+    /**
+     * @param event the event
+     * @return whether the event may be dropped when the shard is overloaded
+     */
+    private boolean isSheddable(Event event) {
+        return event instanceof UserTypingEvent
+                || event instanceof UserGameUpdateEvent
+                || event instanceof UserOnlineStatusUpdateEvent;
+    }
+
+    /**
+     * stops accepting new events, already queued events are still handled
+     */
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    public EventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
     @Override
     public List<Object> getRegisteredListeners() {
         return this.listeners;
@@ -19,26 +19,37 @@ package emily.handler;
 import emily.db.controllers.CGuild;
 import emily.db.controllers.CReplyPattern;
 import emily.db.model.OReplyPattern;
+import emily.main.BotConfig;
 import emily.main.DiscordBot;
+import emily.util.AhoCorasick;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.PrivateChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
  * Handles the automatic responses to messages
+ * <p>
+ * Replies are split into the global ones and one set per guild. For each reply the longest piece of text
+ * which any match must contain is taken from its pattern, only the patterns whose text occurs in the message are evaluated.
  */
 public class AutoReplyHandler {
-    private final Map<String, Long[]> cooldowns;
+    //a pattern which runs out of time this often is disabled until the next reload
+    private static final int MAX_TIMEOUTS = 3;
+    //escapes matching a single character or position, everything after them is read as usual
+    private static final String SINGLE_CHAR_ESCAPES = "dDwWsShHvVbBAGZzRXtnrfae";
+    private final Map<Long, long[]> cooldowns;
     private DiscordBot bot;
-    private volatile AutoReply[] replies;
+    private volatile Index index = new Index(Collections.emptyList());
 
     public AutoReplyHandler(DiscordBot bot) {
         this.bot = bot;
@@ -46,10 +57,135 @@ public class AutoReplyHandler {
         reload();
     }
 
-    public void removeGuild(String discordGuildId) {
-        if (cooldowns.containsKey(discordGuildId)) {
-            cooldowns.remove(discordGuildId);
+    /**
+     * The longest literal text any match of the pattern has to contain.
+     * Parts inside groups, character classes and optional parts are skipped, patterns which can't be analysed return null
+     *
+     * @param regex the pattern
+     * @return the text or null if there is none
+     */
+    static String requiredLiteral(String regex) {
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (inClass) {
+                if (c == '\\') {
+                    if (!skippableEscape(regex, i)) {
+                        return null;
+                    }
+                    i++;
+                } else if (c == '[') {
+                    //nested classes and intersections
+                    return null;
+                } else if (c == ']') {
+                    inClass = false;
+                }
+                continue;
+            }
+            if (depth > 0) {
+                if (c == '\\') {
+                    if (!skippableEscape(regex, i)) {
+                        return null;
+                    }
+                    i++;
+                } else if (c == '[') {
+                    inClass = true;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                continue;
+            }
+            switch (c) {
+                case '|':
+                    return null;
+                case '(':
+                    if (i + 2 < regex.length() && regex.charAt(i + 1) == '?' && ":=!<".indexOf(regex.charAt(i + 2)) < 0) {
+                        //inline flags change how the rest of the pattern is read
+                        return null;
+                    }
+                    endRun(runs, run);
+                    depth++;
+                    break;
+                case '[':
+                    endRun(runs, run);
+                    inClass = true;
+                    break;
+                case '\\':
+                    if (i + 1 >= regex.length()) {
+                        return null;
+                    }
+                    char next = regex.charAt(++i);
+                    if (SINGLE_CHAR_ESCAPES.indexOf(next) >= 0) {
+                        endRun(runs, run);
+                    } else if (!Character.isLetterOrDigit(next)) {
+                        run.append(next);
+                    } else {
+                        //escapes spanning more characters, like \x41 \u0041 \cJ \k<name> \p{L} \Q..\E or back references
+                        return null;
+                    }
+                    break;
+                case '?':
+                case '*':
+                case '{':
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    endRun(runs, run);
+                    if (c == '{') {
+                        int end = regex.indexOf('}', i);
+                        if (end < 0) {
+                            return null;
+                        }
+                        i = end;
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    endRun(runs, run);
+                    break;
+                case ')':
+                    return null;
+                default:
+                    run.append(c);
+            }
+        }
+        endRun(runs, run);
+        String longest = null;
+        for (String literal : runs) {
+            if (longest == null || literal.length() > longest.length()) {
+                longest = literal;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * @return whether the escape at index can be skipped as two characters without misreading what follows it
+     */
+    private static boolean skippableEscape(String regex, int index) {
+        if (index + 1 >= regex.length()) {
+            return false;
         }
+        char next = regex.charAt(index + 1);
+        return next != 'Q' && next != 'c';
+    }
+
+    private static void endRun(List<String> runs, StringBuilder run) {
+        if (run.length() > 0) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    public void removeGuild(String discordGuildId) {
+        cooldowns.remove(Long.parseLong(discordGuildId));
     }
 
     public boolean autoReplied(Message message) {
@@ -60,70 +196,205 @@ public class AutoReplyHandler {
             return false;
         }
         TextChannel channel = (TextChannel) message.getChannel();
-        String guildId = channel.getGuild().getId();
-        int internalGuildId = CGuild.getCachedId(guildId);
-        Long now = System.currentTimeMillis();
-        for (int index = 0; index < replies.length; index++) {
-            if (replies[index].guildId == 0 || replies[index].guildId == internalGuildId) {
-                Long lastUse = getCooldown(guildId, index);
-                if (lastUse + replies[index].cooldown < now) {
-                    Matcher matcher = replies[index].pattern.matcher(message.getContent());
-                    if (matcher.find()) {
-                        saveCooldown(guildId, index, now);
-                        bot.out.sendAsyncMessage(channel, message.getAuthor().getAsMention() + ", " + replies[index].reply, null);
-                        return true;
-                    }
-                }
+        long guildId = channel.getGuild().getIdLong();
+        int internalGuildId = CGuild.getCachedId(channel.getGuild().getId());
+        Index current = index;
+        String content = message.getContent();
+        long now = System.currentTimeMillis();
+        long[] lastUse = getCooldowns(guildId, current.size);
+        List<AutoReply> candidates = new ArrayList<>();
+        current.global.addCandidates(content, candidates);
+        Partition guildPartition = current.guilds.get(internalGuildId);
+        if (guildPartition != null) {
+            int globalCount = candidates.size();
+            guildPartition.addCandidates(content, candidates);
+            if (globalCount > 0 && candidates.size() > globalCount) {
+                candidates.sort((a, b) -> Integer.compare(a.order, b.order));
+            }
+        }
+        for (AutoReply reply : candidates) {
+            if (reply.disabled || lastUse[reply.order] + reply.cooldown >= now) {
+                continue;
+            }
+            if (matches(reply, content)) {
+                lastUse[reply.order] = now;
+                bot.out.sendAsyncMessage(channel, message.getAuthor().getAsMention() + ", " + reply.reply, null);
+                return true;
             }
         }
         return false;
     }
 
-    private long getCooldown(String guildId, int index) {
-        if (!cooldowns.containsKey(guildId)) {
-            cooldowns.put(guildId, new Long[replies.length]);
-        }
-        if (index >= cooldowns.get(guildId).length || cooldowns.get(guildId)[index] == null) {
-            return 0;
+    /**
+     * runs the pattern of a reply, giving up when it takes longer than the time budget
+     */
+    private boolean matches(AutoReply reply, String content) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BotConfig.AUTO_REPLY_MATCH_BUDGET_MS);
+        try {
+            return reply.pattern.matcher(new BudgetedText(content, deadline)).find();
+        } catch (MatchTimeoutException e) {
+            if (++reply.timeouts >= MAX_TIMEOUTS) {
+                reply.disabled = true;
+            }
+            DiscordBot.LOGGER.warn("Auto reply `{}` took longer than {}ms to match ({} times){}",
+                    reply.tag, BotConfig.AUTO_REPLY_MATCH_BUDGET_MS, reply.timeouts, reply.disabled ? ", disabled until the next reload" : "");
+            return false;
         }
-        return cooldowns.get(guildId)[index];
     }
 
-    private void saveCooldown(String guildId, int index, long value) {
-        if (!cooldowns.containsKey(guildId)) {
-            cooldowns.put(guildId, new Long[replies.length]);
+    private long[] getCooldowns(long guildId, int size) {
+        long[] lastUse = cooldowns.get(guildId);
+        if (lastUse == null || lastUse.length < size) {
+            lastUse = lastUse == null ? new long[size] : Arrays.copyOf(lastUse, size);
+            cooldowns.put(guildId, lastUse);
         }
-        if (cooldowns.get(guildId).length != replies.length) {
-            cooldowns.put(guildId, Arrays.copyOf(cooldowns.get(guildId), replies.length));
-        }
-        cooldowns.get(guildId)[index] = value;
+        return lastUse;
     }
 
     public void reload() {
         List<OReplyPattern> all = CReplyPattern.getAll();
         List<AutoReply> list = new ArrayList<>();
-        int index = 0;
         for (OReplyPattern reply : all) {
             AutoReply ar = new AutoReply();
             if (reply.pattern == null || reply.pattern.length() < 5) {
                 continue;
             }
             ar.pattern = Pattern.compile(reply.pattern, Pattern.DOTALL + Pattern.CASE_INSENSITIVE);
+            ar.literal = requiredLiteral(reply.pattern);
             ar.tag = reply.tag;
             ar.cooldown = reply.cooldown;
             ar.reply = reply.reply;
             ar.guildId = reply.guildId;
+            ar.order = list.size();
             list.add(ar);
         }
-        replies = list.toArray(new AutoReply[list.size()]);
+        index = new Index(list);
+    }
+
+    /**
+     * The replies split up by guild
+     */
+    private static class Index {
+        private final Partition global;
+        private final Map<Integer, Partition> guilds = new HashMap<>();
+        private final int size;
+
+        private Index(List<AutoReply> replies) {
+            size = replies.size();
+            List<AutoReply> globalReplies = new ArrayList<>();
+            Map<Integer, List<AutoReply>> perGuild = new HashMap<>();
+            for (AutoReply reply : replies) {
+                if (reply.guildId == 0) {
+                    globalReplies.add(reply);
+                } else {
+                    perGuild.computeIfAbsent(reply.guildId, k -> new ArrayList<>()).add(reply);
+                }
+            }
+            global = new Partition(globalReplies);
+            for (Map.Entry<Integer, List<AutoReply>> entry : perGuild.entrySet()) {
+                guilds.put(entry.getKey(), new Partition(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * A set of replies with a keyword matcher over the text their patterns require
+     */
+    private static class Partition {
+        private final AutoReply[] replies;
+        private final AhoCorasick matcher;
+        private final boolean[] alwaysCheck;
+        private final int[] keywordReply;
+
+        private Partition(List<AutoReply> list) {
+            replies = list.toArray(new AutoReply[list.size()]);
+            alwaysCheck = new boolean[replies.length];
+            List<String> keywords = new ArrayList<>();
+            List<Integer> owners = new ArrayList<>();
+            for (int i = 0; i < replies.length; i++) {
+                if (replies[i].literal == null) {
+                    alwaysCheck[i] = true;
+                } else {
+                    keywords.add(replies[i].literal);
+                    owners.add(i);
+                }
+            }
+            keywordReply = owners.stream().mapToInt(Integer::intValue).toArray();
+            matcher = keywords.isEmpty() ? null : new AhoCorasick(keywords);
+        }
+
+        /**
+         * adds the replies which could match the message, in the order they were loaded
+         */
+        private void addCandidates(String content, List<AutoReply> candidates) {
+            if (replies.length == 0) {
+                return;
+            }
+            boolean[] hit = Arrays.copyOf(alwaysCheck, alwaysCheck.length);
+            if (matcher != null) {
+                matcher.search(content, keyword -> hit[keywordReply[keyword]] = true);
+            }
+            for (int i = 0; i < replies.length; i++) {
+                if (hit[i]) {
+                    candidates.add(replies[i]);
+                }
+            }
+        }
+    }
+
+    private static class MatchTimeoutException extends RuntimeException {
+        private MatchTimeoutException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Text which makes the regex engine give up once the deadline has passed
+     */
+    private static class BudgetedText implements CharSequence {
+        private final CharSequence text;
+        private final long deadline;
+        private int reads = 0;
+
+        private BudgetedText(CharSequence text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++reads & 0x3FF) == 0 && System.nanoTime() > deadline) {
+                throw new MatchTimeoutException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new BudgetedText(text.subSequence(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
     }
 
     private class AutoReply {
 
         public Pattern pattern;
+        public String literal;
         public String tag;
         public long cooldown;
         public String reply;
         public int guildId;
+        public int order;
+        public volatile int timeouts = 0;
+        public volatile boolean disabled = false;
     }
 }
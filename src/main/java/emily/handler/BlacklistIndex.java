@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import emily.db.model.OBlacklistCommand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup table for the command blacklist
+ * <p>
+ * Each channel with overrides and each guild with guild-wide settings gets a scope, stored in an open addressing
+ * table keyed by the channel id, or by the negated internal guild id for the guild-wide scope.
+ * When a channel has overrides the guild-wide settings don't apply to it.
+ * Updates create a new index, readers never see a partially updated one.
+ */
+public class BlacklistIndex {
+    public static final BlacklistIndex EMPTY = new BlacklistIndex(Collections.emptyMap());
+    private final Map<Integer, List<OBlacklistCommand>> records;
+    private final long[] keys;
+    private final Scope[] scopes;
+    private final int mask;
+
+    private BlacklistIndex(Map<Integer, List<OBlacklistCommand>> records) {
+        this.records = records;
+        Map<Long, Scope> collected = new HashMap<>();
+        for (List<OBlacklistCommand> guildRecords : records.values()) {
+            for (OBlacklistCommand record : guildRecords) {
+                long key;
+                if ("0".equals(record.channelId)) {
+                    key = -record.guildId;
+                } else {
+                    try {
+                        key = Long.parseLong(record.channelId);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                }
+                collected.computeIfAbsent(key, k -> new Scope(record.guildId)).add(record.command, record.blacklisted);
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, collected.size() * 2 - 1)) << 1;
+        keys = new long[capacity];
+        scopes = new Scope[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<Long, Scope> entry : collected.entrySet()) {
+            int slot = slot(entry.getKey());
+            while (scopes[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = entry.getKey();
+            scopes[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * builds an index of all blacklisted items
+     *
+     * @param items the blacklisted items of all guilds
+     * @return the index
+     */
+    public static BlacklistIndex build(List<OBlacklistCommand> items) {
+        Map<Integer, List<OBlacklistCommand>> byGuild = new HashMap<>();
+        for (OBlacklistCommand item : items) {
+            byGuild.computeIfAbsent(item.guildId, k -> new ArrayList<>()).add(item);
+        }
+        return new BlacklistIndex(byGuild);
+    }
+
+    /**
+     * creates a copy of the index with the items of a guild replaced
+     *
+     * @param guildId internal guild id
+     * @param items   the blacklisted items of the guild
+     * @return the new index
+     */
+    public BlacklistIndex withGuild(int guildId, List<OBlacklistCommand> items) {
+        Map<Integer, List<OBlacklistCommand>> copy = new HashMap<>(records);
+        if (items.isEmpty()) {
+            copy.remove(guildId);
+        } else {
+            copy.put(guildId, new ArrayList<>(items));
+        }
+        return new BlacklistIndex(copy);
+    }
+
+    /**
+     * @param guildId   internal guild id
+     * @param channelId discord channel id
+     * @param command   command name
+     * @return whether the command is disabled in the channel
+     */
+    public boolean isDisabled(int guildId, long channelId, String command) {
+        if (guildId == 0) {
+            return false;
+        }
+        Scope scope = find(channelId);
+        if (scope == null || scope.guildId != guildId) {
+            scope = find(-guildId);
+        }
+        return scope != null && scope.isDisabled(command);
+    }
+
+    private Scope find(long key) {
+        int slot = slot(key);
+        Scope scope;
+        while ((scope = scopes[slot]) != null) {
+            if (keys[slot] == key) {
+                return scope;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * The blacklist settings for a channel or a whole guild
+     */
+    private static class Scope {
+        private final int guildId;
+        private final Set<String> disabled = new HashSet<>();
+        private final Set<String> enabled = new HashSet<>();
+        private boolean allDisabled = false;
+
+        private Scope(int guildId) {
+            this.guildId = guildId;
+        }
+
+        private void add(String command, boolean blacklisted) {
+            if (CommandHandler.ALL_COMMANDS.equals(command)) {
+                allDisabled = blacklisted;
+            } else if (blacklisted) {
+                disabled.add(command);
+            } else {
+                enabled.add(command);
+            }
+        }
+
+        private boolean isDisabled(String command) {
+            if (disabled.contains(command)) {
+                return true;
+            }
+            return !enabled.contains(command) && allDisabled;
+        }
+    }
+}
@@ -24,36 +24,31 @@ import emily.core.AbstractCommand;
 import emily.db.WebDb;
 import emily.db.controllers.CBlacklistCommand;
 import emily.db.controllers.CBotEvent;
-import emily.db.controllers.CCommandCooldown;
-import emily.db.controllers.CCommandLog;
 import emily.db.controllers.CGuild;
 import emily.db.controllers.CUser;
-import emily.db.model.OBlacklistCommand;
 import emily.db.model.OBotEvent;
-import emily.db.model.OCommandCooldown;
+import emily.guildsettings.DefaultGuildSettings;
 import emily.guildsettings.GSetting;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.main.Launcher;
-import emily.util.DisUtil;
+import emily.threads.CommandUsageThread;
+import emily.util.ClassRegistry;
 import emily.util.Emojibet;
 import emily.util.TimeUtil;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.PrivateChannel;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.User;
-import org.reflections.Reflections;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handles all the commands
@@ -63,51 +58,46 @@ public class CommandHandler {
     public final static String ALL_COMMANDS = "all-commands";
     private static final HashMap<String, AbstractCommand> commands = new HashMap<>();
     private static final HashMap<String, AbstractCommand> commandsAlias = new HashMap<>();
-    private static final Map<String, String> customCommands = new ConcurrentHashMap<>();
-    private static final Map<Integer, Map<String, String>> guildCommands = new ConcurrentHashMap<>();
-    private static final Map<Integer, Map<String, Map<String, Boolean>>> commandBlacklist = new ConcurrentHashMap<>();
+    private static final CommandResolver resolver = new CommandResolver();
+    private static volatile BlacklistIndex commandBlacklist = BlacklistIndex.EMPTY;
+    private static final CommandUsageThread commandUsage = new CommandUsageThread();
+    private static final CooldownHandler cooldowns = new CooldownHandler();
 
     /**
-     * checks if the the message in channel is a command
+     * checks if the the message in channel is a command and splits it into command and arguments
      *
-     * @param channel        the channel the message came from
+     * @param channel        the channel the message came from, null for private channels
      * @param msg            the message
      * @param mentionMe      the user mention string
      * @param mentionMeAlias the nickname
-     * @return whether or not the message is a command
+     * @return the parsed command or null if the message is not a command
      */
-    public static boolean isCommand(TextChannel channel, String msg, String mentionMe, String mentionMeAlias) {
-        return msg.startsWith(DisUtil.getCommandPrefix(channel)) || msg.startsWith(mentionMe) || msg.startsWith(mentionMeAlias);
+    public static CommandResolver.Input parseCommand(TextChannel channel, String msg, String mentionMe, String mentionMeAlias) {
+        String prefix = channel == null
+                ? DefaultGuildSettings.getDefault(GSetting.COMMAND_PREFIX)
+                : GuildSettings.get(channel.getGuild().getIdLong()).getOrDefault(GSetting.COMMAND_PREFIX);
+        return CommandResolver.parse(msg, prefix, mentionMe, mentionMeAlias);
     }
 
     public static void removeGuild(int guildId) {
-        if (guildCommands.containsKey(guildId)) {
-            guildCommands.remove(guildId);
-        }
+        resolver.removeGuild(guildId);
     }
 
     /**
      * directs the command to the right class
      *
-     * @param bot             The bot instance
-     * @param channel         which channel
-     * @param author          author
-     * @param incomingMessage message
+     * @param bot     The bot instance
+     * @param channel which channel
+     * @param author  author
+     * @param input   the parsed message, see {@link #parseCommand(TextChannel, String, String, String)}
      */
-    public static void process(DiscordBot bot, MessageChannel channel, User author, String incomingMessage) {
+    public static void process(DiscordBot bot, MessageChannel channel, User author, CommandResolver.Input input) {
         String outMsg = "";
         boolean commandSuccess = true;
-        boolean startedWithMention = false;
         int guildId = 0;
-        String inputMessage = incomingMessage;
+        String incomingMessage = input.message;
         String commandUsed = "-";
-        if (inputMessage.startsWith(bot.mentionMe)) {
-            inputMessage = inputMessage.replace(bot.mentionMe, "").trim();
-            startedWithMention = true;
-        } else if (inputMessage.startsWith(bot.mentionMeAlias)) {
-            inputMessage = inputMessage.replace(bot.mentionMeAlias, "").trim();
-            startedWithMention = true;
-        }
+        String[] args = input.args;
 
         if (channel instanceof TextChannel) {
             guildId = CGuild.getCachedId(((TextChannel) channel).getGuild().getId());
@@ -115,23 +105,15 @@ public class CommandHandler {
                 return;
             }
         }
-        //ignore the first newline
-        String[] input = inputMessage.split("\\s+", 2);// (?:([^\s\"]+)|\"((?:\w+|\\\"|[^\"])+)")
-        String[] args;
-        if (input.length == 2) {
-            args = input[1].split(" +");
-        } else {
-            args = new String[0];
-        }
-        input[0] = DisUtil.filterPrefix(input[0], channel).toLowerCase();
-        if (commands.containsKey(input[0]) || commandsAlias.containsKey(input[0])) {
-            AbstractCommand command = commands.containsKey(input[0]) ? commands.get(input[0]) : commandsAlias.get(input[0]);
+        CommandResolver.Target target = resolver.resolve(guildId, input.command);
+        if (target != null && target.command != null) {
+            AbstractCommand command = target.command;
             commandUsed = command.getCommand();
             long cooldown = getCommandCooldown(command, author, channel);
-            if (command.canBeDisabled() && isDisabled(guildId, channel.getId(), command.getCommand())) {
+            if (command.canBeDisabled() && isDisabled(guildId, channel.getIdLong(), command.getCommand())) {
                 commandSuccess = false;
                 if (GuildSettings.getFor(channel, GSetting.SHOW_UNKNOWN_COMMANDS).equals("true")) {
-                    outMsg = Template.get("command_is_blacklisted", input[0]);
+                    outMsg = Template.get("command_is_blacklisted", input.command);
                 }
             } else if (cooldown > 0) {
                 outMsg = Template.get("command_on_cooldown", TimeUtil.getRelativeTime((System.currentTimeMillis() / 1000L) + cooldown, false));
@@ -145,7 +127,7 @@ public class CommandHandler {
             } else {
                 String commandOutput;
                 if (args.length == 1 && args[0].equalsIgnoreCase("help")) {
-                    commandOutput = commands.get("help").execute(bot, new String[]{input[0]}, channel, author);
+                    commandOutput = resolver.getCommand("help").execute(bot, new String[]{input.command}, channel, author);
                 } else {
                     commandOutput = command.execute(bot, args, channel, author);
                 }
@@ -158,23 +140,20 @@ public class CommandHandler {
                         usedArguments.append(arg).append(" ");
                     }
                     if (channel instanceof TextChannel) {
-                        CCommandLog.saveLog(CUser.getCachedId(author.getId(), EmojiParser.parseToAliases(author.getName())),
+                        commandUsage.logCommand(CUser.getCachedId(author.getId(), EmojiParser.parseToAliases(author.getName())),
                                 CGuild.getCachedId(((TextChannel) channel).getGuild().getId()),
                                 command.getCommand(),
                                 EmojiParser.parseToAliases(usedArguments.toString()).trim());
                     }
                 }
             }
-        } else if (customCommands.containsKey(input[0])) {
-            commandUsed = input[0];
-            outMsg = DisUtil.replaceTags(customCommands.get(input[0]), author, channel, args);
-        } else if (guildCommands.containsKey(guildId) && guildCommands.get(guildId).containsKey(input[0])) {
-            commandUsed = "custom:" + input[0];
-            outMsg = DisUtil.replaceTags(guildCommands.get(guildId).get(input[0]), author, channel, args);
-        } else if (startedWithMention && BotConfig.BOT_CHATTING_ENABLED) {
+        } else if (target != null) {
+            commandUsed = target.guildCustom ? "custom:" + target.name : target.name;
+            outMsg = target.template.render(author, channel, args);
+        } else if (input.startedWithMention() && BotConfig.BOT_CHATTING_ENABLED) {
             commandSuccess = false;
             channel.sendTyping();
-            outMsg = author.getAsMention() + ", " + bot.chatBotHandler.chat((guildId > 0 ? CGuild.getCachedDiscordId(guildId) : "private"), inputMessage);
+            outMsg = author.getAsMention() + ", " + bot.chatBotHandler.chat((guildId > 0 ? CGuild.getCachedDiscordId(guildId) : "private"), input.getTextWithoutMention());
         } else if (BotConfig.BOT_COMMAND_SHOW_UNKNOWN ||
                 GuildSettings.getFor(channel, GSetting.SHOW_UNKNOWN_COMMANDS).equals("true")) {
             commandSuccess = false;
@@ -210,7 +189,7 @@ public class CommandHandler {
                         "user-name", author.getName(),
                         "response", outMsg);
             }
-            CUser.registerCommandUse(CUser.getCachedId(author.getId()));
+            commandUsage.registerCommandUse(CUser.getCachedId(author.getId()));
         }
     }
 
@@ -231,7 +210,6 @@ public class CommandHandler {
      */
     private static long getCommandCooldown(AbstractCommand command, User author, MessageChannel channel) {
         if (command instanceof ICommandCooldown) {
-            long now = System.currentTimeMillis() / 1000L;
             ICommandCooldown cd = (ICommandCooldown) command;
             String targetId;
             switch (cd.getScope()) {
@@ -254,47 +232,13 @@ public class CommandHandler {
                     targetId = "";
                     break;
             }
-            OCommandCooldown cooldown = CCommandCooldown.findBy(command.getCommand(), targetId, cd.getScope().getId());
-            if (cooldown.lastTime + cd.getCooldownDuration() <= now) {
-
-                cooldown.command = command.getCommand();
-                cooldown.targetId = targetId;
-                cooldown.targetType = cd.getScope().getId();
-                cooldown.lastTime = now;
-                CCommandCooldown.insertOrUpdate(cooldown);
-                return 0;
-            }
-            return cooldown.lastTime + cd.getCooldownDuration() - now;
+            return cooldowns.checkAndStart(command.getCommand(), cd.getCooldownDuration(), cd.getScope(), targetId);
         }
         return 0;
     }
 
-    private static boolean isDisabled(int guildId, String channelId, String commandName) {
-        if (guildId == 0) {
-            return false;
-        }
-        if (!commandBlacklist.containsKey(guildId)) {
-            return false;
-        }
-        if (commandBlacklist.get(guildId).containsKey(channelId)) {
-            if (commandBlacklist.get(guildId).get(channelId).containsKey(commandName)) {
-                return commandBlacklist.get(guildId).get(channelId).get(commandName);
-            }
-            if (commandBlacklist.get(guildId).get(channelId).containsKey(ALL_COMMANDS)) {
-                return commandBlacklist.get(guildId).get(channelId).get(ALL_COMMANDS);
-            }
-            return false;
-        }
-        if (commandBlacklist.get(guildId).containsKey("0")) {
-            if (commandBlacklist.get(guildId).get("0").containsKey(commandName)) {
-                return commandBlacklist.get(guildId).get("0").get(commandName);
-            }
-            if (commandBlacklist.get(guildId).get("0").containsKey(ALL_COMMANDS)) {
-                return commandBlacklist.get(guildId).get("0").get(ALL_COMMANDS);
-            }
-            return false;
-        }
-        return false;
+    private static boolean isDisabled(int guildId, long channelId, String commandName) {
+        return commandBlacklist.isDisabled(guildId, channelId, commandName);
     }
 
     /**
@@ -305,13 +249,7 @@ public class CommandHandler {
         if (key.startsWith(BotConfig.BOT_COMMAND_PREFIX)) {
             key = key.substring(BotConfig.BOT_COMMAND_PREFIX.length());
         }
-        if (commands.containsKey(key)) {
-            return commands.get(key);
-        }
-        if (commandsAlias.containsKey(key)) {
-            return commandsAlias.get(key);
-        }
-        return null;
+        return resolver.getCommand(key);
     }
 
     /**
@@ -321,12 +259,7 @@ public class CommandHandler {
      * @return list of code-commands
      */
     public static List<String> getCustomCommands(int guildId) {
-        List<String> cmds = new ArrayList<>();
-        cmds.addAll(customCommands.keySet());
-        if (guildCommands.containsKey(guildId)) {
-            cmds.addAll(guildCommands.get(guildId).keySet());
-        }
-        return cmds;
+        return resolver.getCustomCommands(guildId);
     }
 
     public static AbstractCommand[] getCommandObjects() {
@@ -353,18 +286,15 @@ public class CommandHandler {
      * Loads all the custom commands
      */
     private static void loadCustomCommands() {
+        Map<String, String> global = new HashMap<>();
+        Map<Integer, Map<String, String>> perGuild = new HashMap<>();
         try (ResultSet r = WebDb.get().select("SELECT server,input, output FROM commands ")) {
             while (r != null && r.next()) {
                 int guildId = r.getInt("server");
                 if (guildId == 0) {
-                    if (!commands.containsKey(r.getString("input"))) {
-                        customCommands.put(r.getString("input"), r.getString("output"));
-                    }
+                    global.put(r.getString("input"), r.getString("output"));
                 } else {
-                    if (!guildCommands.containsKey(guildId)) {
-                        guildCommands.put(guildId, new ConcurrentHashMap<>());
-                    }
-                    guildCommands.get(guildId).put(r.getString("input"), r.getString("output"));
+                    perGuild.computeIfAbsent(guildId, k -> new HashMap<>()).put(r.getString("input"), r.getString("output"));
                 }
             }
             if (r != null) {
@@ -372,17 +302,23 @@ public class CommandHandler {
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            return;
+        }
+        resolver.setGlobalCustomCommands(global);
+        for (Map.Entry<Integer, Map<String, String>> entry : perGuild.entrySet()) {
+            resolver.setGuildCustomCommands(entry.getKey(), entry.getValue());
         }
     }
 
     public static void loadCustomCommands(int guildId) {
-        removeGuild(guildId);
+        if (guildId == 0) {
+            loadCustomCommands();
+            return;
+        }
+        Map<String, String> custom = new HashMap<>();
         try (ResultSet r = WebDb.get().select("SELECT input, output FROM commands WHERE server = ?", guildId)) {
             while (r != null && r.next()) {
-                if (!guildCommands.containsKey(guildId)) {
-                    guildCommands.put(guildId, new ConcurrentHashMap<>());
-                }
-                guildCommands.get(guildId).put(r.getString("input"), r.getString("output"));
+                custom.put(r.getString("input"), r.getString("output"));
             }
 
             if (r != null) {
@@ -390,8 +326,9 @@ public class CommandHandler {
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            return;
         }
-
+        resolver.setGuildCustomCommands(guildId, custom);
     }
 
     /**
@@ -446,8 +383,25 @@ public class CommandHandler {
     public static void initialize() {
         loadCommands();
         loadAliases();
+        resolver.setCommands(commands, commandsAlias);
         loadCustomCommands();
         reloadBlackList();
+        cooldowns.initialize(getCommandObjects());
+        if (commandUsage.getState() == Thread.State.NEW) {
+            commandUsage.start();
+        }
+    }
+
+    /**
+     * writes the buffered command usage and cooldowns to the database
+     */
+    public static void shutdown() {
+        commandUsage.shutdown(10_000L);
+        cooldowns.shutdown();
+    }
+
+    public static CommandUsageThread getCommandUsage() {
+        return commandUsage;
     }
 
     /**
@@ -459,7 +413,7 @@ public class CommandHandler {
     public static void removeCustomCommand(int guildId, String input) {
         try {
             WebDb.get().query("DELETE FROM commands WHERE input = ? AND server = ?", input, guildId);
-            loadCustomCommands();
+            loadCustomCommands(guildId);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -469,8 +423,7 @@ public class CommandHandler {
      * initializes the commands
      */
     private static void loadCommands() {
-        Reflections reflections = new Reflections("emily.command");
-        Set<Class<? extends AbstractCommand>> classes = reflections.getSubTypesOf(AbstractCommand.class);
+        Set<Class<? extends AbstractCommand>> classes = ClassRegistry.getSubTypesOf(AbstractCommand.class, "emily.command");
         for (Class<? extends AbstractCommand> s : classes) {
             try {
                 if (Modifier.isAbstract(s.getModifiers())) {
@@ -495,21 +448,10 @@ public class CommandHandler {
     }
 
     /**
-     * (re-)loads the guild-specific blacklisted commands
-     * Map<Integer, Map<String, HashSet<String>>>
+     * (re-)loads the guild-specific blacklisted commands of all guilds
      */
     private static void reloadBlackList() {
-        commandBlacklist.clear();
-        List<OBlacklistCommand> blacklisted = CBlacklistCommand.getAllBlacklisted();
-        for (OBlacklistCommand item : blacklisted) {
-            if (!commandBlacklist.containsKey(item.guildId)) {
-                commandBlacklist.put(item.guildId, new HashMap<>());
-            }
-            if (!commandBlacklist.get(item.guildId).containsKey(item.channelId)) {
-                commandBlacklist.get(item.guildId).put(item.channelId, new HashMap<>());
-            }
-            commandBlacklist.get(item.guildId).get(item.channelId).put(item.command, item.blacklisted);
-        }
+        commandBlacklist = BlacklistIndex.build(CBlacklistCommand.getAllBlacklisted());
     }
 
     /**
@@ -518,17 +460,6 @@ public class CommandHandler {
      * @param guildId internal guildid to reload it for
      */
     public synchronized static void reloadBlackListFor(int guildId) {
-        if (commandBlacklist.containsKey(guildId)) {
-            commandBlacklist.get(guildId).clear();
-        } else {
-            commandBlacklist.put(guildId, new HashMap<>());
-        }
-        List<OBlacklistCommand> blacklisted = CBlacklistCommand.getBlacklistedFor(guildId);
-        for (OBlacklistCommand item : blacklisted) {
-            if (!commandBlacklist.get(item.guildId).containsKey(item.channelId)) {
-                commandBlacklist.get(item.guildId).put(item.channelId, new HashMap<>());
-            }
-            commandBlacklist.get(item.guildId).get(item.channelId).put(item.command, item.blacklisted);
-        }
+        commandBlacklist = commandBlacklist.withGuild(guildId, CBlacklistCommand.getBlacklistedFor(guildId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import emily.core.AbstractCommand;
+import emily.util.TagTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup tables to go from the text of a message to the command it triggers
+ * <p>
+ * The built-in commands, their aliases and the global custom commands share one table,
+ * each guild has its own table with custom commands. The tables are immutable snapshots which are
+ * replaced as a whole when a guild's custom commands change.
+ */
+public class CommandResolver {
+    private static final String[] NO_ARGS = new String[0];
+    private final Map<Integer, Map<String, Target>> guildTables = new ConcurrentHashMap<>();
+    private volatile Map<String, AbstractCommand> commandTable = Collections.emptyMap();
+    private volatile Map<String, String> globalCustom = Collections.emptyMap();
+    private volatile Map<String, Target> globalTable = Collections.emptyMap();
+
+    /**
+     * Parses a message in a single pass
+     *
+     * @param message        the raw message
+     * @param prefix         the command prefix
+     * @param mentionMe      the bot's mention
+     * @param mentionMeAlias the bot's nickname mention
+     * @return the parsed input or null if the message is not a command
+     */
+    public static Input parse(String message, String prefix, String mentionMe, String mentionMeAlias) {
+        final int length = message.length();
+        int i = skipWhitespace(message, 0);
+        String mention = null;
+        if (mentionMe != null && message.startsWith(mentionMe, i)) {
+            mention = mentionMe;
+        } else if (mentionMeAlias != null && message.startsWith(mentionMeAlias, i)) {
+            mention = mentionMeAlias;
+        }
+        if (mention != null) {
+            i = skipWhitespace(message, i + mention.length());
+            if (message.startsWith(prefix, i)) {
+                i += prefix.length();
+            }
+        } else if (message.startsWith(prefix, i)) {
+            i += prefix.length();
+        } else {
+            return null;
+        }
+        int start = i;
+        while (i < length && !isWhitespace(message.charAt(i))) {
+            i++;
+        }
+        String command = message.substring(start, i).toLowerCase();
+        i = skipWhitespace(message, i);
+        return new Input(message, mention, command, i < length ? splitArgs(message, i) : NO_ARGS);
+    }
+
+    /**
+     * splits the remainder of the message on spaces, other whitespace stays part of the argument
+     */
+    private static String[] splitArgs(String message, int from) {
+        List<String> args = new ArrayList<>();
+        final int length = message.length();
+        int start = from;
+        for (int i = from; i <= length; i++) {
+            if (i == length || message.charAt(i) == ' ') {
+                if (i > start) {
+                    args.add(message.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    private static int skipWhitespace(String message, int from) {
+        int i = from;
+        while (i < message.length() && isWhitespace(message.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * the same characters as the regex \s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Finds what a command name refers to.
+     * Built-in commands go before aliases, aliases before global custom commands and those before guild custom commands
+     *
+     * @param guildId internal guild id, 0 for private channels
+     * @param name    the command name without prefix, in lowercase
+     * @return the target or null if nothing matches
+     */
+    public Target resolve(int guildId, String name) {
+        Target target = globalTable.get(name);
+        if (target != null || guildId == 0) {
+            return target;
+        }
+        Map<String, Target> guildTable = guildTables.get(guildId);
+        return guildTable == null ? null : guildTable.get(name);
+    }
+
+    /**
+     * @param name command name or alias
+     * @return the built-in command or null
+     */
+    public AbstractCommand getCommand(String name) {
+        return commandTable.get(name);
+    }
+
+    /**
+     * replaces the built-in commands
+     *
+     * @param commands command name -> command
+     * @param aliases  alias -> command
+     */
+    public synchronized void setCommands(Map<String, AbstractCommand> commands, Map<String, AbstractCommand> aliases) {
+        Map<String, AbstractCommand> table = new HashMap<>(aliases);
+        table.putAll(commands);
+        commandTable = table;
+        rebuildGlobal();
+    }
+
+    /**
+     * replaces the custom commands which are available in every guild
+     *
+     * @param custom input -> output
+     */
+    public synchronized void setGlobalCustomCommands(Map<String, String> custom) {
+        globalCustom = new HashMap<>(custom);
+        rebuildGlobal();
+    }
+
+    private void rebuildGlobal() {
+        Map<String, Target> table = new HashMap<>();
+        for (Map.Entry<String, String> entry : globalCustom.entrySet()) {
+            table.put(entry.getKey(), new Target(entry.getKey(), null, entry.getValue(), false));
+        }
+        for (Map.Entry<String, AbstractCommand> entry : commandTable.entrySet()) {
+            table.put(entry.getKey(), new Target(entry.getKey(), entry.getValue(), null, false));
+        }
+        globalTable = table;
+    }
+
+    /**
+     * replaces the custom commands of a guild
+     *
+     * @param guildId internal guild id
+     * @param custom  input -> output
+     */
+    public void setGuildCustomCommands(int guildId, Map<String, String> custom) {
+        if (custom.isEmpty()) {
+            guildTables.remove(guildId);
+            return;
+        }
+        Map<String, Target> table = new HashMap<>();
+        for (Map.Entry<String, String> entry : custom.entrySet()) {
+            table.put(entry.getKey(), new Target(entry.getKey(), null, entry.getValue(), true));
+        }
+        guildTables.put(guildId, table);
+    }
+
+    public void removeGuild(int guildId) {
+        guildTables.remove(guildId);
+    }
+
+    /**
+     * @param guildId internal guild id
+     * @return names of the global and guild custom commands
+     */
+    public List<String> getCustomCommands(int guildId) {
+        List<String> list = new ArrayList<>(globalCustom.keySet());
+        Map<String, Target> guildTable = guildTables.get(guildId);
+        if (guildTable != null) {
+            list.addAll(guildTable.keySet());
+        }
+        return list;
+    }
+
+    /**
+     * What a command name refers to, either a built-in command or the output of a custom command
+     */
+    public static class Target {
+        public final String name;
+        public final AbstractCommand command;
+        public final String output;
+        /**
+         * the output compiled for rendering, null for built-in commands
+         */
+        public final TagTemplate template;
+        public final boolean guildCustom;
+
+        private Target(String name, AbstractCommand command, String output, boolean guildCustom) {
+            this.name = name;
+            this.command = command;
+            this.output = output;
+            this.template = output == null ? null : TagTemplate.compile(output);
+            this.guildCustom = guildCustom;
+        }
+    }
+
+    /**
+     * A message split into command and arguments
+     */
+    public static class Input {
+        public final String message;
+        public final String command;
+        public final String[] args;
+        private final String mention;
+
+        private Input(String message, String mention, String command, String[] args) {
+            this.message = message;
+            this.mention = mention;
+            this.command = command;
+            this.args = args;
+        }
+
+        public boolean startedWithMention() {
+            return mention != null;
+        }
+
+        /**
+         * @return the message without the mention of the bot
+         */
+        public String getTextWithoutMention() {
+            return mention == null ? message : message.replace(mention, "").trim();
+        }
+    }
+}
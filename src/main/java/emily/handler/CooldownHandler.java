@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import emily.command.CooldownScope;
+import emily.command.ICommandCooldown;
+import emily.core.AbstractCommand;
+import emily.db.controllers.CCommandCooldown;
+import emily.db.model.OCommandCooldown;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the command cooldowns in memory
+ * <p>
+ * Cooldowns are stored by (command, scope, target) with the time they expire,
+ * expired entries are only cleaned up when the store is flushed.
+ * Changes are persisted to the `command_cooldown` table in the background so they survive a restart.
+ */
+public class CooldownHandler {
+    private static final long FLUSH_INTERVAL = 10L;
+    private final Map<CooldownKey, Long> expiries = new ConcurrentHashMap<>();
+    private final Map<CooldownKey, Long> unsaved = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cooldown-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean started = false;
+
+    /**
+     * loads the cooldowns which are still active and starts persisting changes
+     *
+     * @param commands the commands known to the bot
+     */
+    public synchronized void initialize(AbstractCommand[] commands) {
+        if (started) {
+            return;
+        }
+        Map<String, Long> durations = new HashMap<>();
+        long maxDuration = 0;
+        for (AbstractCommand command : commands) {
+            if (command instanceof ICommandCooldown) {
+                long duration = ((ICommandCooldown) command).getCooldownDuration();
+                durations.put(command.getCommand(), duration);
+                maxDuration = Math.max(maxDuration, duration);
+            }
+        }
+        long now = System.currentTimeMillis() / 1000L;
+        for (OCommandCooldown record : CCommandCooldown.getAllSince(now - maxDuration)) {
+            Long duration = durations.get(record.command);
+            if (duration != null && record.lastTime + duration > now) {
+                expiries.put(new CooldownKey(record.command, record.targetType, record.targetId), record.lastTime + duration);
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+        started = true;
+    }
+
+    /**
+     * Checks whether the command is on cooldown for the target, if it isn't the cooldown is started
+     *
+     * @param command  name of the command
+     * @param duration cooldown in seconds
+     * @param scope    scope of the cooldown
+     * @param targetId the id of the user/channel/guild, depending on the scope
+     * @return 0 if the cooldown was started, otherwise the amount of seconds left
+     */
+    public long checkAndStart(String command, long duration, CooldownScope scope, String targetId) {
+        final long now = System.currentTimeMillis() / 1000L;
+        final long[] remaining = {0L};
+        CooldownKey key = new CooldownKey(command, scope.getId(), targetId);
+        expiries.compute(key, (k, expiresAt) -> {
+            if (expiresAt != null && expiresAt > now) {
+                remaining[0] = expiresAt - now;
+                return expiresAt;
+            }
+            return now + duration;
+        });
+        if (remaining[0] == 0L) {
+            unsaved.put(key, now);
+        }
+        return remaining[0];
+    }
+
+    /**
+     * persists the changed cooldowns and forgets the expired ones
+     */
+    public void flush() {
+        try {
+            long now = System.currentTimeMillis() / 1000L;
+            expiries.entrySet().removeIf(entry -> entry.getValue() <= now);
+            if (unsaved.isEmpty()) {
+                return;
+            }
+            List<OCommandCooldown> records = new ArrayList<>();
+            for (CooldownKey key : unsaved.keySet()) {
+                Long lastTime = unsaved.remove(key);
+                if (lastTime == null) {
+                    continue;
+                }
+                OCommandCooldown record = new OCommandCooldown();
+                record.command = key.command;
+                record.targetType = key.targetType;
+                record.targetId = key.targetId;
+                record.lastTime = lastTime;
+                records.add(record);
+            }
+            CCommandCooldown.insertOrUpdate(records);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * stops the background writer and persists the remaining changes
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public int size() {
+        return expiries.size();
+    }
+
+    private static class CooldownKey {
+        private final String command;
+        private final int targetType;
+        private final String targetId;
+        private final int hash;
+
+        private CooldownKey(String command, int targetType, String targetId) {
+            this.command = command;
+            this.targetType = targetType;
+            this.targetId = targetId;
+            this.hash = Objects.hash(command, targetType, targetId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CooldownKey)) return false;
+            CooldownKey other = (CooldownKey) o;
+            return targetType == other.targetType && command.equals(other.command) && targetId.equals(other.targetId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import emily.guildsettings.GSetting;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.permission.SimpleRank;
+import emily.util.ClassRegistry;
 import emily.util.DisUtil;
 import emily.util.Misc;
 import net.dv8tion.jda.core.entities.ChannelType;
@@ -31,7 +32,6 @@ import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.MessageReaction;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.User;
-import org.reflections.Reflections;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
@@ -66,8 +66,7 @@ public class GameHandler {
             return;
         }
         initialized = true;
-        Reflections reflections = new Reflections("emily.games");
-        Set<Class<? extends AbstractGame>> classes = reflections.getSubTypesOf(AbstractGame.class);
+        Set<Class<? extends AbstractGame>> classes = ClassRegistry.getSubTypesOf(AbstractGame.class, "emily.games");
         for (Class<? extends AbstractGame> gameClass : classes) {
             try {
                 AbstractGame abstractGame = gameClass.getConstructor().newInstance();
@@ -21,7 +21,9 @@ import emily.db.controllers.CGuild;
 import emily.db.model.OGuild;
 import emily.guildsettings.DefaultGuildSettings;
 import emily.guildsettings.GSetting;
+import emily.main.DiscordBot;
 import emily.permission.SimpleRank;
+import emily.util.DisUtil;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.Role;
@@ -30,6 +32,7 @@ import net.dv8tion.jda.core.entities.User;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,13 +42,27 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class GuildSettings {
     private final static Map<Long, GuildSettings> settingInstance = new ConcurrentHashMap<>();
+    //lock per guild which is being loaded, so the database isn't queried while holding a lock of settingInstance
+    private final static Map<Long, Object> loading = new ConcurrentHashMap<>();
     private final String[] settings;
+    //parsed channel id per setting, 0 if the value is not a channel id
+    private final long[] channelIds;
     private final long guildId;
     private int id = 0;
     private boolean initialized = false;
 
-    private GuildSettings(Long guild) {
+    private GuildSettings(long guild, int id) {
         this.settings = new String[GSetting.values().length];
+        this.channelIds = new long[settings.length];
+        this.guildId = guild;
+        this.id = id;
+        updateChannelIds();
+    }
+
+    /**
+     * creates the guild record if needed and loads its settings
+     */
+    private static GuildSettings load(long guild) {
         OGuild record = CGuild.findBy(guild);
         if (record.id == 0) {
             record.name = String.valueOf(guild);
@@ -53,10 +70,44 @@ public class GuildSettings {
             record.owner = 1;
             CGuild.insert(record);
         }
-        this.guildId = guild;
-        this.id = record.id;
-        settingInstance.put(guild, this);
-        loadSettings();
+        GuildSettings instance = new GuildSettings(guild, record.id);
+        instance.loadSettings();
+        return instance;
+    }
+
+    /**
+     * Loads the settings of all active guilds in one go, so the first messages after a start don't have to hit the database
+     */
+    public static void preload() {
+        Map<Long, GuildSettings> loaded = new HashMap<>();
+        try (ResultSet rs = WebDb.get().selectStreaming(
+                "SELECT g.id, g.discord_id, s.name, s.config " +
+                        "FROM guilds g " +
+                        "LEFT JOIN guild_settings s ON s.guild = g.id " +
+                        "WHERE g.active = 1")) {
+            while (rs.next()) {
+                long discordId = rs.getLong("discord_id");
+                GuildSettings instance = loaded.get(discordId);
+                if (instance == null) {
+                    instance = new GuildSettings(discordId, rs.getInt("id"));
+                    instance.initialized = true;
+                    loaded.put(discordId, instance);
+                }
+                String key = rs.getString("name");
+                if (key != null && DefaultGuildSettings.isValidKey(key)) {
+                    instance.settings[GSetting.valueOf(key.toUpperCase()).ordinal()] = rs.getString("config");
+                }
+            }
+            rs.getStatement().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (GuildSettings instance : loaded.values()) {
+            instance.updateChannelIds();
+            settingInstance.putIfAbsent(instance.guildId, instance);
+        }
+        DiscordBot.LOGGER.info("Preloaded settings of {} guilds", loaded.size());
     }
 
     /**
@@ -74,24 +125,40 @@ public class GuildSettings {
     }
 
     public static void remove(String guildId) {
-        if (settingInstance.containsKey(Long.parseLong(guildId))) {
-            settingInstance.remove(Long.parseLong(guildId));
-        }
+        settingInstance.remove(Long.parseLong(guildId));
     }
 
     public static GuildSettings get(Guild guild) {
-        return get(Long.parseLong(guild.getId()));
+        return get(guild.getIdLong());
     }
 
     public static GuildSettings get(String guildId) {
         return get(Long.parseLong(guildId));
     }
 
+    /**
+     * Retrieves the settings of a guild, concurrent requests for a guild which isn't cached yet share a single load
+     */
     public static GuildSettings get(long guild) {
-        if (settingInstance.containsKey(guild)) {
-            return settingInstance.get(guild);
-        } else {
-            return new GuildSettings(guild);
+        GuildSettings instance = settingInstance.get(guild);
+        if (instance != null) {
+            return instance;
+        }
+        Object lock = loading.computeIfAbsent(guild, k -> new Object());
+        try {
+            synchronized (lock) {
+                instance = settingInstance.get(guild);
+                if (instance == null) {
+                    GuildSettings loaded = load(guild);
+                    instance = settingInstance.putIfAbsent(guild, loaded);
+                    if (instance == null) {
+                        instance = loaded;
+                    }
+                }
+                return instance;
+            }
+        } finally {
+            loading.remove(guild, lock);
         }
     }
 
@@ -107,6 +174,54 @@ public class GuildSettings {
         return getOrDefault(GSetting.valueOf(key.toUpperCase()));
     }
 
+    /**
+     * @param setting a setting which holds a channel id or name
+     * @return the channel id if the setting holds one, otherwise 0
+     */
+    public long getChannelId(GSetting setting) {
+        return channelIds[setting.ordinal()];
+    }
+
+    /**
+     * Resolves a setting which holds a channel id or a channel name
+     *
+     * @param guild   the guild of these settings
+     * @param setting the setting
+     * @return the channel or null if it can't be found
+     */
+    public TextChannel getChannel(Guild guild, GSetting setting) {
+        long channelId = channelIds[setting.ordinal()];
+        if (channelId != 0) {
+            return guild.getTextChannelById(channelId);
+        }
+        return DisUtil.findChannel(guild, getOrDefault(setting));
+    }
+
+    private void updateChannelIds() {
+        for (GSetting setting : GSetting.values()) {
+            updateChannelId(setting);
+        }
+    }
+
+    private void updateChannelId(GSetting setting) {
+        channelIds[setting.ordinal()] = parseChannelId(getOrDefault(setting));
+    }
+
+    /**
+     * @return the value as id if it consists of at least 12 digits, otherwise 0
+     */
+    private static long parseChannelId(String value) {
+        if (value == null || value.length() < 12 || value.length() > 19) {
+            return 0;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return 0;
+            }
+        }
+        return Long.parseLong(value);
+    }
+
     /**
      * (re-)loads settings for guild
      */
@@ -125,10 +240,11 @@ public class GuildSettings {
                 String key = rs.getString("name");
                 String value = rs.getString("config");
                 if (DefaultGuildSettings.isValidKey(key)) {
-                    settings[GSetting.valueOf(key).ordinal()] = value;
+                    settings[GSetting.valueOf(key.toUpperCase()).ordinal()] = value;
                 }
             }
             rs.getStatement().close();
+            updateChannelIds();
             initialized = true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -162,6 +278,7 @@ public class GuildSettings {
                 WebDb.get().insert("INSERT INTO guild_settings (guild, name, config) VALUES(?, ?, ?) " +
                         "ON DUPLICATE KEY UPDATE config=?", id, setting.name().toLowerCase(), dbValue, dbValue);
                 settings[setting.ordinal()] = dbValue;
+                updateChannelId(setting);
                 return true;
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import emily.db.WebDb;
+import emily.db.controllers.CMusic;
+import emily.main.BotConfig;
+import emily.main.BotContainer;
+import emily.main.DiscordBot;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the music directory within {@link BotConfig#MUSIC_CACHE_MAX_SIZE_MB}
+ * <p>
+ * The index of the directory is built once at startup and kept up to date as tracks are downloaded and played.
+ * When the directory grows over budget, the files with the lowest score are deleted. The score is the last time the
+ * track was used, plus a bonus for each time it was played, so popular tracks survive a quiet week.
+ * Tracks which are playing, queued or being downloaded are never evicted.
+ */
+public class MusicCache {
+    //each play counts as this many seconds of recency, capped at MAX_PLAY_BONUS plays
+    private static final long PLAY_BONUS = TimeUnit.HOURS.toSeconds(6);
+    private static final int MAX_PLAY_BONUS = 40;
+    private static final Map<String, Entry> files = new ConcurrentHashMap<>();
+    private static final AtomicLong totalBytes = new AtomicLong(0);
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+    private static final AtomicLong bytesSaved = new AtomicLong(0);
+    private static final AtomicLong evictions = new AtomicLong(0);
+    private static final AtomicLong evictedBytes = new AtomicLong(0);
+
+    /**
+     * scans the music directory and picks up the play statistics of the files in it
+     */
+    public static synchronized void init() {
+        files.clear();
+        totalBytes.set(0);
+        File[] list = new File(BotConfig.MUSIC_DIRECTORY).listFiles(File::isFile);
+        if (list == null) {
+            return;
+        }
+        for (File file : list) {
+            Entry entry = new Entry(file.length(), file.lastModified() / 1000L);
+            files.put(file.getName(), entry);
+            totalBytes.addAndGet(entry.size);
+        }
+        try (ResultSet rs = WebDb.get().selectStreaming("SELECT youtubecode, play_count, lastplaydate FROM music WHERE file_exists = 1")) {
+            while (rs.next()) {
+                Entry entry = files.get(rs.getString("youtubecode") + ".opus");
+                if (entry != null) {
+                    entry.plays = rs.getInt("play_count");
+                    entry.lastUsed = Math.max(entry.lastUsed, rs.getLong("lastplaydate"));
+                }
+            }
+            rs.getStatement().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        DiscordBot.LOGGER.info("Music cache: {} files, {} MB", files.size(), totalBytes.get() / 1024L / 1024L);
+    }
+
+    /**
+     * Registers a request for a track
+     *
+     * @param file the file of the track
+     * @return whether the file is on disk already
+     */
+    public static boolean request(File file) {
+        Entry entry = files.get(file.getName());
+        if (entry != null && file.exists()) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(entry.size);
+            entry.lastUsed = System.currentTimeMillis() / 1000L;
+            return true;
+        }
+        if (file.exists()) {
+            hits.incrementAndGet();
+            added(file);
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * marks a track as played
+     */
+    public static void played(File file) {
+        Entry entry = files.get(file.getName());
+        if (entry != null) {
+            entry.lastUsed = System.currentTimeMillis() / 1000L;
+            entry.plays++;
+        }
+    }
+
+    /**
+     * adds a new (downloaded) file to the index
+     */
+    public static void added(File file) {
+        Entry entry = new Entry(file.length(), System.currentTimeMillis() / 1000L);
+        Entry previous = files.put(file.getName(), entry);
+        totalBytes.addAndGet(entry.size - (previous == null ? 0 : previous.size));
+    }
+
+    /**
+     * removes a file from the index, the file itself should be removed by the caller
+     */
+    public static void removed(File file) {
+        Entry previous = files.remove(file.getName());
+        if (previous != null) {
+            totalBytes.addAndGet(-previous.size);
+        }
+    }
+
+    /**
+     * Deletes the least valuable files until the cache fits its budget again
+     *
+     * @param container used to check which tracks are being downloaded
+     * @return amount of files deleted
+     */
+    public static synchronized int trimToBudget(BotContainer container) {
+        long budget = BotConfig.MUSIC_CACHE_MAX_SIZE_MB * 1024L * 1024L;
+        if (totalBytes.get() <= budget) {
+            return 0;
+        }
+        Set<String> pinned = MusicPlayerHandler.getFilesInUse();
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : files.entrySet()) {
+            String name = item.getKey();
+            if (pinned.contains(name) || (container != null && container.isInProgress(videoCode(name)))) {
+                continue;
+            }
+            candidates.add(new Candidate(name, item.getValue()));
+        }
+        candidates.sort((a, b) -> Long.compare(a.score, b.score));
+        List<String> evictedCodes = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (totalBytes.get() <= budget) {
+                break;
+            }
+            File file = new File(BotConfig.MUSIC_DIRECTORY, candidate.name);
+            if (file.exists() && !file.delete()) {
+                continue;
+            }
+            if (files.remove(candidate.name, candidate.entry)) {
+                totalBytes.addAndGet(-candidate.entry.size);
+            }
+            evictions.incrementAndGet();
+            evictedBytes.addAndGet(candidate.entry.size);
+            evictedCodes.add(videoCode(candidate.name));
+        }
+        CMusic.markFilesRemoved(evictedCodes);
+        return evictedCodes.size();
+    }
+
+    private static String videoCode(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    public static long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public static String getStats() {
+        long total = hits.get() + misses.get();
+        return String.format("files: %s, size: %s/%s MB, hits: %s, misses: %s (%.1f%% hit), saved: %s MB, evicted: %s (%s MB)",
+                files.size(), totalBytes.get() / 1024L / 1024L, BotConfig.MUSIC_CACHE_MAX_SIZE_MB, hits.get(), misses.get(),
+                total == 0 ? 0D : hits.get() * 100D / total, bytesSaved.get() / 1024L / 1024L, evictions.get(), evictedBytes.get() / 1024L / 1024L);
+    }
+
+    private static class Entry {
+        private final long size;
+        private volatile long lastUsed;
+        private volatile int plays = 0;
+
+        private Entry(long size, long lastUsed) {
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+
+        private long score() {
+            return lastUsed + Math.min(plays, MAX_PLAY_BONUS) * PLAY_BONUS;
+        }
+    }
+
+    private static class Candidate {
+        private final String name;
+        private final Entry entry;
+        private final long score;
+
+        private Candidate(String name, Entry entry) {
+            this.name = name;
+            this.entry = entry;
+            this.score = entry.score();
+        }
+    }
+}
@@ -28,7 +28,6 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import emily.command.music.PlayCommand;
-import emily.db.WebDb;
 import emily.db.controllers.CBotPlayingOn;
 import emily.db.controllers.CGuild;
 import emily.db.controllers.CMusic;
@@ -40,10 +39,12 @@ import emily.db.model.OPlaylist;
 import emily.guildsettings.GSetting;
 import emily.handler.audio.AudioPlayerSendHandler;
 import emily.handler.audio.QueuedAudioTrack;
+import emily.handler.discord.RestQueue;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
 import emily.main.Launcher;
 import emily.permission.SimpleRank;
+import emily.threads.YoutubeThread;
 import emily.util.Emojibet;
 import emily.util.MusicUtil;
 import emily.util.YTUtil;
@@ -61,14 +62,14 @@ import net.dv8tion.jda.core.utils.PermissionUtil;
 
 import java.io.File;
 import java.io.IOException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -77,6 +78,7 @@ import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class MusicPlayerHandler {
+    private static final int RADIO_HISTORY_SIZE = 20;
     private final static DefaultAudioPlayerManager playerManager = new DefaultAudioPlayerManager();
     private final static Map<String, MusicPlayerHandler> playerInstances = new ConcurrentHashMap<>();
     private final DiscordBot bot;
@@ -95,6 +97,10 @@ public class MusicPlayerHandler {
     private volatile OPlaylist playlist;
     private Random rng;
     private volatile LinkedList<OMusic> queue;
+    //tracks the radio played recently in this guild, these are skipped when picking the next one
+    private final ArrayDeque<Integer> recentRadioTracks = new ArrayDeque<>();
+    //tracks being downloaded in the background for this player
+    private final Set<YoutubeThread.Download> prefetches = ConcurrentHashMap.newKeySet();
 
     private MusicPlayerHandler(Guild guild, DiscordBot bot) {
 
@@ -274,7 +280,9 @@ public class MusicPlayerHandler {
                     bot.out.sendMessageToCreator("file:" + absolutePath + BotConfig.EOL + "Message: " + exception.getMessage());
                     trackToAdd.fileExists = 0;
                     CMusic.update(trackToAdd);
-                    new File(absolutePath).delete();
+                    File brokenFile = new File(absolutePath);
+                    MusicCache.removed(brokenFile);
+                    brokenFile.delete();
                     if (finalKeepGoing) {
                         trackEnded();
                     }
@@ -295,6 +303,7 @@ public class MusicPlayerHandler {
         AudioTrackInfo info = player.getPlayingTrack().getInfo();
         if (info != null) {
             File f = new File(info.identifier);
+            MusicCache.played(f);
             record = CMusic.findByFileName(f.getAbsolutePath());
             if (record.id > 0) {
                 if (record.duration == 0) {
@@ -323,7 +332,7 @@ public class MusicPlayerHandler {
             Guild guild = bot.getJda().getGuildById(guildId);
             if (musicChannel != null && PermissionUtil.checkPermission(musicChannel, guild.getSelfMember(), Permission.MANAGE_CHANNEL)) {
                 if (!isUpdateChannelTitle()) {
-                    bot.queue.add(musicChannel.getManager().setTopic("\uD83C\uDFB6 " + record.youtubeTitle));
+                    bot.queue.add(RestQueue.Priority.NOW_PLAYING, musicChannel.getIdLong(), musicChannel.getManager().setTopic("\uD83C\uDFB6 " + record.youtubeTitle));
                 }
             }
         }
@@ -349,13 +358,13 @@ public class MusicPlayerHandler {
             };
             Guild guild = bot.getJda().getGuildById(guildId);
             if (!PermissionUtil.checkPermission(musicChannel, guild.getSelfMember(), Permission.MESSAGE_EMBED_LINKS)) {
-                bot.queue.add(musicChannel.sendMessage(MusicUtil.nowPlayingMessageNoEmbed(this, record)), callback);
+                bot.queue.add(RestQueue.Priority.NOW_PLAYING, musicChannel.getIdLong(), musicChannel.sendMessage(MusicUtil.nowPlayingMessageNoEmbed(this, record)), callback);
             } else {
                 Member member = null;
                 if (scheduler.getLastRequester() != null && !scheduler.getLastRequester().isEmpty()) {
                     member = guild.getMemberById(scheduler.getLastRequester());
                 }
-                bot.queue.add(musicChannel.sendMessage(MusicUtil.nowPlayingMessage(this, record, member)), callback);
+                bot.queue.add(RestQueue.Priority.NOW_PLAYING, musicChannel.getIdLong(), musicChannel.sendMessage(MusicUtil.nowPlayingMessage(this, record, member)), callback);
             }
         }
     }
@@ -377,6 +386,7 @@ public class MusicPlayerHandler {
     }
 
     public boolean leave() {
+        cancelPrefetches();
         if (isConnected()) {
             stopMusic();
         }
@@ -455,29 +465,22 @@ public class MusicPlayerHandler {
      * @return filename OR null when the music table is empty
      */
     private String getRandomSong() {
-        ArrayList<String> potentialSongs = new ArrayList<>();
         if (!playlist.isGlobalList()) {
             return CPlaylist.getNextTrack(playlist.id, playlist.getPlayType());
         }
-        try (ResultSet rs = WebDb.get().select(
-                "SELECT filename, youtube_title, lastplaydate " +
-                        "FROM music " +
-                        "WHERE banned = 0 AND file_exists = 1 " +
-                        "AND play_count > 25 " +
-                        "ORDER BY lastplaydate ASC " +
-                        "LIMIT 50")) {
-            while (rs.next()) {
-                potentialSongs.add(rs.getString("filename"));
-            }
-            rs.getStatement().close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            bot.getContainer().reportError(e);
+        RadioIndex.Track track = RadioIndex.pick(rng, recentRadioTracks);
+        if (track == null && !recentRadioTracks.isEmpty()) {
+            recentRadioTracks.clear();
+            track = RadioIndex.pick(rng, recentRadioTracks);
         }
-        if (potentialSongs.isEmpty()) {
+        if (track == null) {
             return null;
         }
-        return potentialSongs.get(rng.nextInt(potentialSongs.size()));
+        recentRadioTracks.addLast(track.id);
+        if (recentRadioTracks.size() > RADIO_HISTORY_SIZE) {
+            recentRadioTracks.removeFirst();
+        }
+        return track.filename;
     }
 
     /**
@@ -645,12 +648,57 @@ public class MusicPlayerHandler {
     }
 
     public synchronized void stopMusic() {
+        cancelPrefetches();
         currentlyPlaying = 0;
         player.destroy();
         Launcher.log("Stop playing", "music", "stop",
                 "guild-id", guildId);
     }
 
+    /**
+     * Keeps track of a background download, so it can be withdrawn when the player stops
+     *
+     * @param download the download requested for this player
+     */
+    public void addPrefetch(YoutubeThread.Download download) {
+        prefetches.add(download);
+        download.getFuture().whenComplete((file, error) -> prefetches.remove(download));
+    }
+
+    private void cancelPrefetches() {
+        for (YoutubeThread.Download download : prefetches) {
+            if (prefetches.remove(download)) {
+                download.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return names of the music files which are playing or queued in any guild
+     */
+    public static Set<String> getFilesInUse() {
+        Set<String> files = new HashSet<>();
+        for (MusicPlayerHandler handler : playerInstances.values()) {
+            handler.collectFilesInUse(files);
+        }
+        return files;
+    }
+
+    private synchronized void collectFilesInUse(Set<String> files) {
+        AudioTrack playing = player.getPlayingTrack();
+        if (playing != null) {
+            files.add(new File(playing.getIdentifier()).getName());
+        }
+        for (QueuedAudioTrack track : scheduler.queue) {
+            files.add(new File(track.getTrack().getIdentifier()).getName());
+        }
+        for (OMusic music : queue) {
+            if (music.filename != null) {
+                files.add(new File(music.filename).getName());
+            }
+        }
+    }
+
     public List<OMusic> getQueue() {
         return queue.stream().collect(Collectors.toList());
     }
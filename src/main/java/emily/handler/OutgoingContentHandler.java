@@ -16,14 +16,13 @@
 
 package emily.handler;
 
+import emily.handler.discord.RestQueue;
+import emily.handler.discord.RoleQueue;
 import emily.handler.discord.RoleModifyTask;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
-import emily.main.Launcher;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.ChannelType;
-import net.dv8tion.jda.core.entities.Guild;
-import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.MessageChannel;
 import net.dv8tion.jda.core.entities.Role;
@@ -32,17 +31,16 @@ import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.requests.RestAction;
 import net.dv8tion.jda.core.utils.PermissionUtil;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class OutgoingContentHandler {
     private final DiscordBot botInstance;
-    private final RoleModifier roleThread;
+    private final RoleQueue roleQueue;
 
     public OutgoingContentHandler(DiscordBot b) {
         botInstance = b;
-        roleThread = new RoleModifier();
+        roleQueue = new RoleQueue(b);
     }
 
     public void editBlocking(Message msg, String newContent) {
@@ -53,7 +51,7 @@ public class OutgoingContentHandler {
         if (channel == null) {
             return;
         }
-        botInstance.queue.add(channel.editMessageById(msg.getId(), newContent));
+        botInstance.queue.add(RestQueue.Priority.REPLY, channel.getIdLong(), channel.editMessageById(msg.getId(), newContent));
     }
 
     /**
@@ -69,12 +67,12 @@ public class OutgoingContentHandler {
             sendAsyncMessage(channel, content);
             return;
         }
-        botInstance.queue.add(channel.sendMessage(content.substring(0, Math.min(1999, content.length()))), callback);
+        botInstance.queue.add(RestQueue.Priority.REPLY, channel.getIdLong(), channel.sendMessage(content.substring(0, Math.min(1999, content.length()))), callback);
     }
 
     public void sendAsyncMessage(MessageChannel channel, String content) {
         RestAction<Message> messageRestAction = channel.sendMessage(content.substring(0, Math.min(1999, content.length())));
-        botInstance.queue.add(messageRestAction, message -> {
+        botInstance.queue.add(RestQueue.Priority.REPLY, channel.getIdLong(), messageRestAction, message -> {
             if (botInstance.shouldCleanUpMessages(channel)) {
                 botInstance.schedule(() -> saveDelete(message), BotConfig.DELETE_MESSAGES_AFTER, TimeUnit.MILLISECONDS);
             }
@@ -82,7 +80,7 @@ public class OutgoingContentHandler {
     }
 
     public void editAsync(Message message, String content) {
-        botInstance.queue.add(message.editMessage(content.substring(0, Math.min(1999, content.length()))));
+        botInstance.queue.add(RestQueue.Priority.REPLY, message.getChannel().getIdLong(), message.editMessage(content.substring(0, Math.min(1999, content.length()))));
     }
 
     /**
@@ -92,7 +90,7 @@ public class OutgoingContentHandler {
      * @param role the role
      */
     public void addRole(User user, Role role) {
-        roleThread.offer(new RoleModifyTask(user, role, true));
+        roleQueue.offer(new RoleModifyTask(user, role, true));
     }
 
     /**
@@ -102,7 +100,11 @@ public class OutgoingContentHandler {
      * @param role the role
      */
     public void removeRole(User user, Role role) {
-        roleThread.offer(new RoleModifyTask(user, role, false));
+        roleQueue.offer(new RoleModifyTask(user, role, false));
+    }
+
+    public RoleQueue getRoleQueue() {
+        return roleQueue;
     }
 
     /**
@@ -147,49 +149,8 @@ public class OutgoingContentHandler {
         if (messageToDelete != null && botInstance.getJda() == messageToDelete.getJDA()) {
             TextChannel channel = botInstance.getJda().getTextChannelById(messageToDelete.getChannel().getId());
             if (channel != null && PermissionUtil.checkPermission(channel, channel.getGuild().getSelfMember(), Permission.MESSAGE_HISTORY)) {
-                botInstance.queue.add(channel.deleteMessageById(messageToDelete.getId()));
-            }
-        }
-    }
-
-
-    private class RoleModifier extends Thread {
-        private LinkedBlockingQueue<RoleModifyTask> itemsToDelete = new LinkedBlockingQueue<>();
-        private volatile boolean processTerminated = false;
-
-        RoleModifier() {
-            start();
-        }
-
-        public void run() {
-            try {
-                while (!Launcher.isBeingKilled) {
-                    final RoleModifyTask roleToModify = itemsToDelete.take();
-                    if (roleToModify != null) {
-                        Guild guild = roleToModify.getRole().getGuild();
-                        Member member = guild.getMember(roleToModify.getUser());
-                        Role role = roleToModify.getRole();
-                        if (member == null) {
-                            continue;
-                        }
-                        if (PermissionUtil.canInteract(guild.getSelfMember(), role)) {
-                            if (roleToModify.isAdd()) {
-                                guild.getController().addRolesToMember(member, role).complete();
-                            } else {
-                                guild.getController().removeRolesFromMember(member, role).complete();
-                            }
-                        }
-                    }
-                }
-            } catch (InterruptedException ignored) {
-            } finally {
-                processTerminated = true;
+                botInstance.queue.add(RestQueue.Priority.CLEANUP, channel.getIdLong(), channel.deleteMessageById(messageToDelete.getId()));
             }
         }
-
-        public void offer(RoleModifyTask lm) {
-            if (processTerminated) return;
-            itemsToDelete.offer(lm);
-        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import emily.db.WebDb;
+import emily.db.model.OMusic;
+import emily.main.DiscordBot;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * The tracks the radio (global playlist) picks from, ordered by when they were played last
+ * <p>
+ * Loaded once and kept up to date by {@link emily.db.controllers.CMusic}, so picking a track doesn't need the database.
+ */
+public class RadioIndex {
+    //tracks need to be played this many times to end up on the radio
+    private static final int MIN_PLAY_COUNT = 25;
+    //the next track is picked from this many least recently played tracks
+    private static final int CANDIDATES = 50;
+    private static final Comparator<Track> ORDER = Comparator.<Track>comparingLong(track -> track.lastPlayed).thenComparingInt(track -> track.id);
+    private static final Map<Integer, Track> tracks = new HashMap<>();
+    private static final Map<String, Integer> codes = new HashMap<>();
+    private static final TreeSet<Track> byLastPlayed = new TreeSet<>(ORDER);
+
+    public static synchronized void init() {
+        tracks.clear();
+        codes.clear();
+        byLastPlayed.clear();
+        try (ResultSet rs = WebDb.get().selectStreaming(
+                "SELECT id, youtubecode, filename, lastplaydate " +
+                        "FROM music " +
+                        "WHERE banned = 0 AND file_exists = 1 AND play_count > ?", MIN_PLAY_COUNT)) {
+            while (rs.next()) {
+                add(new Track(rs.getInt("id"), rs.getString("youtubecode"), rs.getString("filename"), rs.getLong("lastplaydate")));
+            }
+            rs.getStatement().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        DiscordBot.LOGGER.info("Radio index: {} tracks", tracks.size());
+    }
+
+    /**
+     * updates the index after a track has been saved
+     */
+    public static synchronized void update(OMusic record) {
+        if (record.id == 0) {
+            return;
+        }
+        remove(record.id);
+        if (record.banned == 0 && record.fileExists == 1 && record.playCount > MIN_PLAY_COUNT) {
+            add(new Track(record.id, record.youtubecode, record.filename, record.lastplaydate));
+        }
+    }
+
+    /**
+     * removes tracks of which the file has been deleted
+     */
+    public static synchronized void removeByCode(Collection<String> youtubeCodes) {
+        for (String code : youtubeCodes) {
+            Integer id = codes.get(code);
+            if (id != null) {
+                remove(id);
+            }
+        }
+    }
+
+    /**
+     * Picks a random track out of the least recently played ones
+     *
+     * @param rng     random source
+     * @param exclude ids of tracks to skip, such as the ones the guild heard recently
+     * @return a track or null if there are none
+     */
+    public static synchronized Track pick(Random rng, Collection<Integer> exclude) {
+        List<Track> candidates = new ArrayList<>(CANDIDATES);
+        for (Track track : byLastPlayed) {
+            if (!exclude.contains(track.id)) {
+                candidates.add(track);
+                if (candidates.size() >= CANDIDATES) {
+                    break;
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return candidates.get(rng.nextInt(candidates.size()));
+    }
+
+    public static synchronized int size() {
+        return tracks.size();
+    }
+
+    private static void add(Track track) {
+        tracks.put(track.id, track);
+        if (track.youtubecode != null) {
+            codes.put(track.youtubecode, track.id);
+        }
+        byLastPlayed.add(track);
+    }
+
+    private static void remove(int id) {
+        Track previous = tracks.remove(id);
+        if (previous != null) {
+            byLastPlayed.remove(previous);
+            if (previous.youtubecode != null) {
+                codes.remove(previous.youtubecode, id);
+            }
+        }
+    }
+
+    public static class Track {
+        public final int id;
+        public final String youtubecode;
+        public final String filename;
+        public final long lastPlayed;
+
+        private Track(int id, String youtubecode, String filename, long lastPlayed) {
+            this.id = id;
+            this.youtubecode = youtubecode;
+            this.filename = filename;
+            this.lastPlayed = lastPlayed;
+        }
+    }
+}
@@ -1,33 +1,244 @@
 package emily.handler.discord;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import emily.main.BotConfig;
 import emily.main.DiscordBot;
+import net.dv8tion.jda.core.requests.RequestFuture;
 import net.dv8tion.jda.core.requests.RestAction;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
- * wrapper around message add with a timeout to prevent deadlocks
+ * Sends rest actions to discord without parking a thread per request
  * <p>
- * Yes we have to make our own 'RestAction' wrapper around jda because they decided that its a good idea to accept the Consumer in the same Runnable as the RestAction
- * Yey another layer of abstraction isn't java great /s
+ * Actions are queued in a lane per {@link Priority}, higher lanes are always served first.
+ * Within a lane actions are grouped by route (usually the channel) and the routes take turns,
+ * so one busy channel can't starve the others. At most {@link BotConfig#REST_MAX_IN_FLIGHT} actions wait
+ * for a response at the same time, the rate limiting per route is left to JDA.
  */
 public class RestQueue {
-    private final ExecutorService executor;
+    private static final long TIMEOUT = 15L;
+    //max actions waiting for a response per route, route 0 (unknown) is not limited
+    private static final int MAX_IN_FLIGHT_PER_ROUTE = 2;
+    private final int maxInFlight;
+    private final Lane[] lanes;
+    private final ExecutorService callbacks;
+    private final ScheduledExecutorService timeouts;
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong timedOut = new AtomicLong(0);
+    private int inFlight = 0;
 
     public RestQueue(DiscordBot bot) {
-        ThreadFactoryBuilder threadBuilder = new ThreadFactoryBuilder();
-        threadBuilder.setNameFormat(String.format("shard-%02d-message-add-%%d", bot.getShardId()));
-        executor = Executors.newFixedThreadPool(10,threadBuilder.build());
+        maxInFlight = Math.max(1, BotConfig.REST_MAX_IN_FLIGHT);
+        lanes = new Lane[Priority.values().length];
+        for (Priority priority : Priority.values()) {
+            lanes[priority.ordinal()] = new Lane();
+        }
+        callbacks = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder()
+                .setNameFormat(String.format("shard-%02d-rest-callback-%%d", bot.getShardId()))
+                .setDaemon(true).build());
+        timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(String.format("shard-%02d-rest-timeout", bot.getShardId()))
+                .setDaemon(true).build());
     }
 
     public <T> void add(RestAction<T> action) {
-        executor.submit(new RestTask<>(action));
+        add(Priority.REPLY, 0L, action, null);
     }
 
     public <T> void add(RestAction<T> action, Consumer<T> complete) {
-        executor.submit(new RestTask<>(executor, action, complete));
+        add(Priority.REPLY, 0L, action, complete);
+    }
+
+    public <T> void add(Priority priority, long routeKey, RestAction<T> action) {
+        add(priority, routeKey, action, null);
+    }
+
+    /**
+     * @param priority the lane to queue the action in
+     * @param routeKey what the action is rate limited on, usually the channel id; 0 if unknown
+     * @param action   the action
+     * @param complete called with the result, or with null if it failed
+     */
+    public <T> void add(Priority priority, long routeKey, RestAction<T> action, Consumer<T> complete) {
+        if (action == null) {
+            return;
+        }
+        synchronized (this) {
+            lanes[priority.ordinal()].offer(new RestTask<>(priority, routeKey, action, complete));
+        }
+        pump();
+    }
+
+    /**
+     * sends queued actions until the in flight limit is reached
+     */
+    private void pump() {
+        while (true) {
+            RestTask<?> task = null;
+            synchronized (this) {
+                if (inFlight >= maxInFlight) {
+                    return;
+                }
+                for (Lane lane : lanes) {
+                    task = lane.poll();
+                    if (task != null) {
+                        break;
+                    }
+                }
+                if (task == null) {
+                    return;
+                }
+                inFlight++;
+            }
+            send(task);
+        }
+    }
+
+    private <T> void send(RestTask<T> task) {
+        RequestFuture<T> future;
+        try {
+            future = task.action.submit(true);
+        } catch (RuntimeException e) {
+            finish(task, null, e);
+            return;
+        }
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (future.cancel(true)) {
+                timedOut.incrementAndGet();
+            }
+        }, TIMEOUT, TimeUnit.SECONDS);
+        future.whenComplete((result, error) -> {
+            timeout.cancel(false);
+            finish(task, result, error);
+        });
+    }
+
+    private <T> void finish(RestTask<T> task, T result, Throwable error) {
+        Lane lane = lanes[task.priority.ordinal()];
+        synchronized (this) {
+            inFlight--;
+            lane.done(task.routeKey);
+        }
+        lane.record(System.nanoTime() - task.queuedAt);
+        if (error == null) {
+            sent.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        if (task.complete != null) {
+            T value = error == null ? result : null;
+            callbacks.execute(() -> {
+                try {
+                    task.complete.accept(value);
+                } catch (Exception e) {
+                    DiscordBot.LOGGER.error("rest callback failed", e);
+                }
+            });
+        }
+        pump();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued(Priority priority) {
+        return lanes[priority.ordinal()].size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            sb.append(String.format("in flight: %s/%s, sent: %s, failed: %s, timeouts: %s", inFlight, maxInFlight, sent.get(), failed.get(), timedOut.get()));
+        }
+        for (Priority priority : Priority.values()) {
+            Lane lane = lanes[priority.ordinal()];
+            sb.append(String.format("%n%-12s queued: %5s, avg time-to-send: %.1fms, max: %.1fms",
+                    priority.name().toLowerCase(), getQueued(priority), lane.getAverageMillis(), lane.maxNanos.get() / 1_000_000D));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * order of the lanes, the first one is served first
+     */
+    public enum Priority {
+        REPLY, NOW_PLAYING, CLEANUP, STATS
+    }
+
+    /**
+     * the queued actions of one priority, grouped by route; the fields are guarded by the RestQueue
+     */
+    private static class Lane {
+        private final Map<Long, ArrayDeque<RestTask<?>>> routes = new HashMap<>();
+        private final Map<Long, Integer> routesInFlight = new HashMap<>();
+        //routes with queued actions in the order they get their turn
+        private final ArrayDeque<Long> turns = new ArrayDeque<>();
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalNanos = new AtomicLong(0);
+        private final AtomicLong maxNanos = new AtomicLong(0);
+        private int size = 0;
+
+        private void offer(RestTask<?> task) {
+            ArrayDeque<RestTask<?>> queue = routes.get(task.routeKey);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                routes.put(task.routeKey, queue);
+                turns.offer(task.routeKey);
+            }
+            queue.offer(task);
+            size++;
+        }
+
+        /**
+         * @return the next action of the first route which isn't at its in flight limit
+         */
+        private RestTask<?> poll() {
+            for (int i = turns.size(); i > 0; i--) {
+                Long route = turns.poll();
+                if (route != 0L && routesInFlight.getOrDefault(route, 0) >= MAX_IN_FLIGHT_PER_ROUTE) {
+                    turns.offer(route);
+                    continue;
+                }
+                ArrayDeque<RestTask<?>> queue = routes.get(route);
+                RestTask<?> task = queue.poll();
+                if (queue.isEmpty()) {
+                    routes.remove(route);
+                } else {
+                    turns.offer(route);
+                }
+                routesInFlight.merge(route, 1, Integer::sum);
+                size--;
+                return task;
+            }
+            return null;
+        }
+
+        private void done(long route) {
+            routesInFlight.computeIfPresent(route, (key, value) -> value > 1 ? value - 1 : null);
+        }
+
+        private void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private double getAverageMillis() {
+            long c = count.get();
+            return c == 0 ? 0D : totalNanos.get() / (double) c / 1_000_000D;
+        }
     }
 }
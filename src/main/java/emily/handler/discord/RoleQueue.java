@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler.discord;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import emily.main.BotConfig;
+import emily.main.DiscordBot;
+import emily.main.Launcher;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.utils.PermissionUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies role changes to members
+ * <p>
+ * Changes for the same member are merged while they wait, so they end up as one request.
+ * Each guild is worked through in order by one thread at a time, different guilds are handled in parallel.
+ */
+public class RoleQueue {
+    private final Map<Long, GuildLane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final AtomicInteger backlog = new AtomicInteger(0);
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong merged = new AtomicLong(0);
+    private final AtomicLong applied = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong latencyTotal = new AtomicLong(0);
+    private final AtomicLong latencyMax = new AtomicLong(0);
+
+    public RoleQueue(DiscordBot bot) {
+        workers = Executors.newFixedThreadPool(Math.max(1, BotConfig.ROLE_QUEUE_THREADS), new ThreadFactoryBuilder()
+                .setNameFormat(String.format("shard-%02d-roles-%%d", bot.getShardId()))
+                .setDaemon(true).build());
+    }
+
+    /**
+     * queues a role change, cancelling out an opposite change for the same member and role which is still waiting
+     *
+     * @param task the change
+     */
+    public void offer(RoleModifyTask task) {
+        if (Launcher.isBeingKilled) {
+            return;
+        }
+        queued.incrementAndGet();
+        Guild guild = task.getRole().getGuild();
+        GuildLane lane = lanes.computeIfAbsent(guild.getIdLong(), k -> new GuildLane());
+        boolean start;
+        synchronized (lane) {
+            PendingChange change = lane.pending.get(task.getUser().getIdLong());
+            if (change == null) {
+                change = new PendingChange(task.getUser());
+                lane.pending.put(task.getUser().getIdLong(), change);
+                backlog.incrementAndGet();
+            } else {
+                merged.incrementAndGet();
+            }
+            change.guild = guild;
+            Role role = task.getRole();
+            if (task.isAdd()) {
+                change.remove.remove(role.getIdLong());
+                change.add.put(role.getIdLong(), role);
+            } else {
+                change.add.remove(role.getIdLong());
+                change.remove.put(role.getIdLong(), role);
+            }
+            start = !lane.running;
+            lane.running = true;
+        }
+        if (start) {
+            workers.execute(() -> drain(lane));
+        }
+    }
+
+    private void drain(GuildLane lane) {
+        while (!Launcher.isBeingKilled) {
+            PendingChange change;
+            synchronized (lane) {
+                Iterator<PendingChange> iterator = lane.pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    lane.running = false;
+                    return;
+                }
+                change = iterator.next();
+                iterator.remove();
+            }
+            backlog.decrementAndGet();
+            apply(change);
+            long latency = System.currentTimeMillis() - change.queuedAt;
+            latencyTotal.addAndGet(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    private void apply(PendingChange change) {
+        Guild guild = change.guild;
+        Member member = guild.getMember(change.user);
+        if (member == null) {
+            return;
+        }
+        Member self = guild.getSelfMember();
+        List<Role> current = member.getRoles();
+        List<Role> toAdd = new ArrayList<>();
+        List<Role> toRemove = new ArrayList<>();
+        for (Role role : change.add.values()) {
+            if (!current.contains(role) && PermissionUtil.canInteract(self, role)) {
+                toAdd.add(role);
+            }
+        }
+        for (Role role : change.remove.values()) {
+            if (current.contains(role) && PermissionUtil.canInteract(self, role)) {
+                toRemove.add(role);
+            }
+        }
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return;
+        }
+        try {
+            guild.getController().modifyMemberRoles(member, toAdd, toRemove).complete();
+            applied.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            DiscordBot.LOGGER.warn("Failed to modify the roles of {} in {}: {}", change.user.getId(), guild.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return amount of members with changes waiting
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return average time in milliseconds between queueing a change and it being handled
+     */
+    public double getAverageLatency() {
+        long handled = queued.get() - merged.get() - backlog.get();
+        return handled <= 0 ? 0D : latencyTotal.get() / (double) handled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("backlog: %s members, guilds: %s, queued: %s, merged: %s, applied: %s, failed: %s, avg latency: %.0fms, max latency: %sms",
+                getBacklog(), lanes.size(), queued.get(), merged.get(), applied.get(), failed.get(), getAverageLatency(), latencyMax.get());
+    }
+
+    private static class GuildLane {
+        private final LinkedHashMap<Long, PendingChange> pending = new LinkedHashMap<>();
+        private boolean running = false;
+    }
+
+    private static class PendingChange {
+        private final User user;
+        private final Map<Long, Role> add = new HashMap<>();
+        private final Map<Long, Role> remove = new HashMap<>();
+        private final long queuedAt = System.currentTimeMillis();
+        private Guild guild;
+
+        private PendingChange(User user) {
+            this.user = user;
+        }
+    }
+}
@@ -83,6 +83,14 @@ public class BotConfig {
     public static String BOT_GRAYLOG_HOST = "10.120.34.139";
     @ConfigurationOption
     public static int BOT_GRAYLOG_PORT = 12202;
+    //where the log messages go: gelf (graylog over udp) or file (json lines in BOT_GRAYLOG_FILE, for testing without graylog)
+    @ConfigurationOption
+    public static String BOT_GRAYLOG_SINK = "gelf";
+    @ConfigurationOption
+    public static String BOT_GRAYLOG_FILE = "logs/events.log";
+    //max log messages waiting to be sent, messages beyond this are dropped
+    @ConfigurationOption
+    public static int BOT_GRAYLOG_QUEUE_SIZE = 10_000;
 
     @ConfigurationOption
     public static boolean BOT_AUTO_UPDATE = false;
@@ -145,10 +153,62 @@ public class BotConfig {
     @ConfigurationOption
     public static String YOUTUBEDL_EXE = "H:/youtube-dl.exe";
 
+    //max amount of youtube-dl downloads running at the same time
+    @ConfigurationOption
+    public static int YOUTUBEDL_MAX_CONCURRENT = 4;
+
+    //amount of threads per shard handling discord events
+    @ConfigurationOption
+    public static int EVENT_WORKER_THREADS = 16;
+
+    //max amount of events per shard waiting to be handled
+    @ConfigurationOption
+    public static int EVENT_MAX_QUEUED = 5000;
+
+    //what to do when the event queue is full: drop or block
+    @ConfigurationOption
+    public static String EVENT_OVERLOAD_POLICY = "drop";
+
+    //max amount of discord requests per shard waiting for a response at the same time
+    @ConfigurationOption
+    public static int REST_MAX_IN_FLIGHT = 25;
+
+    //max amount of members per guild whose membership role is changed in one ranking run, the rest waits for the next run
+    @ConfigurationOption
+    public static int USER_RANKING_MAX_CHANGES_PER_GUILD = 250;
+
+    //amount of threads per shard applying role changes, each guild is handled by one thread at a time
+    @ConfigurationOption
+    public static int ROLE_QUEUE_THREADS = 4;
+
+    //max size of the responses of external sites kept in memory, in KB
+    @ConfigurationOption
+    public static long HTTP_CACHE_MAX_SIZE_KB = 16_384L;
+
+    //timeouts in milliseconds for http requests to external sites
+    @ConfigurationOption
+    public static int HTTP_CONNECT_TIMEOUT = 10_000;
+    @ConfigurationOption
+    public static int HTTP_SOCKET_TIMEOUT = 20_000;
+
+    //max size in bytes of an image downloaded to be sent again, and of an uploaded file
+    @ConfigurationOption
+    public static long IMAGE_MAX_DOWNLOAD_SIZE = 16L * 1024L * 1024L;
+    @ConfigurationOption
+    public static long IMAGE_MAX_UPLOAD_SIZE = 8L * 1024L * 1024L;
+
+    //max time in milliseconds an auto reply pattern may take to match a message
+    @ConfigurationOption
+    public static long AUTO_REPLY_MATCH_BUDGET_MS = 25L;
+
     //directory where all the music is stored
     @ConfigurationOption
     public static String MUSIC_DIRECTORY = "H:/music/";
 
+    //max size of the music directory in MB, the least used tracks are deleted when it grows beyond this
+    @ConfigurationOption
+    public static long MUSIC_CACHE_MAX_SIZE_MB = 20_480L;
+
     @ConfigurationOption
     public static int MUSIC_MAX_PLAYLIST_SIZE = 50;
 
@@ -177,6 +237,22 @@ public class BotConfig {
     @ConfigurationOption
     public static String DB_NAME = "discord";
 
+    //max amount of database connections in use at the same time
+    @ConfigurationOption
+    public static int DB_POOL_SIZE = 10;
+
+    //max time in milliseconds to wait for a free database connection
+    @ConfigurationOption
+    public static long DB_POOL_TIMEOUT = 10_000L;
+
+    //max amount of discord-id to internal-id mappings of users to keep in memory
+    @ConfigurationOption
+    public static int USER_ID_CACHE_SIZE = 100_000;
+
+    //max amount of discord-id to internal-id mappings of guilds to keep in memory
+    @ConfigurationOption
+    public static int GUILD_ID_CACHE_SIZE = 25_000;
+
     //enable economy globally
     @ConfigurationOption
     public static boolean MODULE_ECONOMY_ENABLED = true;
@@ -22,12 +22,17 @@ import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import emily.core.ExitCode;
 import emily.db.controllers.CBotPlayingOn;
+import emily.db.controllers.CGuild;
 import emily.db.model.OBotPlayingOn;
 import emily.handler.CommandHandler;
 import emily.handler.GameHandler;
+import emily.handler.GuildSettings;
+import emily.handler.MusicCache;
 import emily.handler.MusicPlayerHandler;
+import emily.handler.RadioIndex;
 import emily.handler.SecurityHandler;
 import emily.handler.Template;
+import emily.handler.discord.RestQueue;
 import emily.role.RoleRankings;
 import emily.templates.TemplateCache;
 import emily.templates.Templates;
@@ -37,15 +42,16 @@ import emily.util.Misc;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
-import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.exceptions.RateLimitedException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 
 import javax.security.auth.login.LoginException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -53,7 +59,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLongArray;
-import java.util.function.Consumer;
 
 /**
  * Shared information between bots
@@ -67,12 +72,15 @@ public class BotContainer {
     private final AtomicInteger numGuilds;
     private final AtomicLongArray lastActions;
     private final ScheduledExecutorService scheduler;
+    private final AtomicInteger shardsReady = new AtomicInteger(0);
+    private final AtomicBoolean youtubeStarted = new AtomicBoolean(false);
+    private volatile IdentifyLimiter identifyLimiter = new IdentifyLimiter(1);
     private volatile boolean allShardsReady = false;
     private volatile boolean terminationRequested = false;
     private volatile ExitCode rebootReason = ExitCode.UNKNOWN;
 
 
-    public BotContainer(int numGuilds) throws LoginException, InterruptedException, RateLimitedException {
+    public BotContainer(int numGuilds) throws InterruptedException {
         scheduler = Executors.newScheduledThreadPool(3);
         this.numGuilds = new AtomicInteger(numGuilds);
         this.numShards = getRecommendedShards();
@@ -260,6 +268,10 @@ public class BotContainer {
 
     public void reportError(String message) {
         DiscordBot shard = getShardFor(BotConfig.BOT_GUILD_ID);
+        if (shard == null || shard.getJda() == null) {
+            LOGGER.warn("Can't report error, the shard of BOT_GUILD_ID is not available: " + message);
+            return;
+        }
         Guild guild = shard.getJda().getGuildById(BotConfig.BOT_GUILD_ID);
         if (guild == null) {
             LOGGER.warn("Can't find BOT_GUILD_ID " + BotConfig.BOT_GUILD_ID);
@@ -290,7 +302,7 @@ public class BotContainer {
         }
         if (channel.getJDA().getStatus() == JDA.Status.CONNECTED) {
             int length = 1 + (int) Math.floor(Math.log10(shards.length));
-            shard.queue.add(channel.sendMessage(
+            shard.queue.add(RestQueue.Priority.STATS, channel.getIdLong(), channel.sendMessage(
                     String.format(Emojibet.SHARD_ICON + " `%0" + length + "d/%0" + length + "d` | ~~%s~~ -> %s",
                             shardId, shards.length, oldStatus.toString(), status.toString())));
         }
@@ -326,6 +338,7 @@ public class BotContainer {
 
     /**
      * Retrieves the shard recommendation from discord
+     * also picks up how many shards are allowed to identify at the same time
      *
      * @return recommended shard count
      */
@@ -335,13 +348,32 @@ public class BotContainer {
                     .header("Authorization", "Bot " + BotConfig.BOT_TOKEN)
                     .header("Content-Type", "application/json")
                     .asJson();
-            return Integer.parseInt(request.getBody().getObject().get("shards").toString());
+            JSONObject body = request.getBody().getObject();
+            JSONObject startLimit = body.optJSONObject("session_start_limit");
+            if (startLimit != null) {
+                identifyLimiter = new IdentifyLimiter(startLimit.optInt("max_concurrency", 1));
+            }
+            return Integer.parseInt(body.get("shards").toString());
         } catch (UnirestException e) {
             e.printStackTrace();
         }
         return 1;
     }
 
+    /**
+     * @return the limiter shards have to pass before they identify with discord
+     */
+    public IdentifyLimiter getIdentifyLimiter() {
+        return identifyLimiter;
+    }
+
+    /**
+     * @return amount of shards which finished starting up
+     */
+    public int getReadyShardCount() {
+        return shardsReady.get();
+    }
+
     /**
      * {@link BotContainer#guildJoined()}
      */
@@ -388,42 +420,84 @@ public class BotContainer {
 
     /**
      * creates a new instance for each shard
+     * <p>
+     * Shards are started concurrently, the {@link IdentifyLimiter} spaces out the identifies.
+     * Every shard starts handling its guilds as soon as it is ready, this only returns once all shards are up.
      *
-     * @throws LoginException       can't log in
      * @throws InterruptedException ¯\_(ツ)_/¯
      */
-    private void initShards() throws LoginException, InterruptedException, RateLimitedException {
+    private void initShards() throws InterruptedException {
+        LOGGER.info("Starting {} shard(s), {} may identify at the same time", shards.length, identifyLimiter.getBuckets());
+        ExecutorService launcher = Executors.newFixedThreadPool(shards.length, r -> {
+            Thread thread = new Thread(r, "shard-launcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long started = System.currentTimeMillis();
         for (int i = 0; i < shards.length; i++) {
-            LOGGER.info("Starting shard #{} of {}", i, shards.length);
-            shards[i] = new DiscordBot(i, shards.length, this);
-            if (i == 0) {
-                shards[i].initOnce();
-            }
-            Thread.sleep(5_000L);
+            final int shardId = i;
+            launcher.execute(() -> {
+                try {
+                    LOGGER.info("Starting shard #{} of {}", shardId, shards.length);
+                    long start = System.currentTimeMillis();
+                    DiscordBot shard = new DiscordBot(shardId, shards.length, this);
+                    shards[shardId] = shard;
+                    onShardReady(shard, System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    LOGGER.error("Failed to start shard #" + shardId, e);
+                }
+            });
         }
+        launcher.shutdown();
+        while (!launcher.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.info("Waiting for shards, {}/{} ready", shardsReady.get(), shards.length);
+        }
+        LOGGER.info("All shards started in {}s", (System.currentTimeMillis() - started) / 1000L);
         for (DiscordBot shard : shards) {
-            setLastAction(shard.getShardId(), System.currentTimeMillis());
+            if (shard != null) {
+                setLastAction(shard.getShardId(), System.currentTimeMillis());
+            }
         }
+        allShardsReady();
+    }
+
+    /**
+     * A shard finished connecting, load what it needs to serve its guilds
+     *
+     * @param shard    the shard
+     * @param duration time in ms it took to start up the shard
+     */
+    private void onShardReady(DiscordBot shard, long duration) {
+        if (shard.getShardId() == 0) {
+            shard.initOnce();
+        }
+        TemplateCache.initGuildTemplates(shard);
+        if (youtubeStarted.compareAndSet(false, true)) {
+            youtubeThread.start();
+        }
+        LOGGER.info("Shard #{} ready in {}s with {} guilds ({}/{} shards ready)",
+                shard.getShardId(), duration / 1000L, shard.getJda().getGuilds().size(), shardsReady.incrementAndGet(), shards.length);
     }
 
     /**
      * After the bot is ready to go; reconnect to the voicechannels and start playing where it left off
      */
     private void onAllShardsReady() {
-        TemplateCache.initGuildTemplates(this);
-        System.out.println("DONE LOADING TEMPLATES");
-        youtubeThread.start();
         CBotPlayingOn.deleteAll();
         sendStatsToDiscordlistNet();
     }
 
     private void initHandlers() {
+        CGuild.warmUpCache();
+        GuildSettings.preload();
         CommandHandler.initialize();
         GameHandler.initialize();
         SecurityHandler.initialize();
         Template.initialize();
         Templates.init();
         MusicPlayerHandler.init();
+        MusicCache.init();
+        RadioIndex.init();
         SecurityHandler.initialize();
         RoleRankings.init();
     }
@@ -442,7 +516,12 @@ public class BotContainer {
                 return false;
             }
         }
-        allShardsReady = true;
+        synchronized (this) {
+            if (allShardsReady) {
+                return true;
+            }
+            allShardsReady = true;
+        }
         onAllShardsReady();
         return true;
     }
@@ -458,12 +537,13 @@ public class BotContainer {
     /**
      * Queue up a track to fetch from youtube
      *
-     * @param youtubeCode the video code
-     * @param message     message object
-     * @param callback    the callback
+     * @param youtubeCode  the video code
+     * @param youtubeTitle title of the video
+     * @param priority     how urgent the request is
+     * @return the (shared) download of the track
      */
-    public void downloadRequest(String youtubeCode, String youtubeTitle, Message message, Consumer<Message> callback) {
-        youtubeThread.addToQueue(youtubeCode, youtubeTitle, message, callback);
+    public YoutubeThread.Download downloadRequest(String youtubeCode, String youtubeTitle, YoutubeThread.Priority priority) {
+        return youtubeThread.download(youtubeCode, youtubeTitle, priority);
     }
 
     /**
@@ -475,7 +555,7 @@ public class BotContainer {
         return youtubeThread.getQueueSize();
     }
 
-    public synchronized boolean isInProgress(String videoCode) {
+    public boolean isInProgress(String videoCode) {
         return youtubeThread.isInProgress(videoCode);
     }
 
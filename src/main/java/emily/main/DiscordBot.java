@@ -26,6 +26,7 @@ import emily.handler.AutoReplyHandler;
 import emily.handler.ChatBotHandler;
 import emily.handler.CommandHandler;
 import emily.handler.CommandReactionHandler;
+import emily.handler.CommandResolver;
 import emily.handler.GameHandler;
 import emily.handler.GuildSettings;
 import emily.handler.MusicPlayerHandler;
@@ -80,6 +81,7 @@ public class DiscordBot {
     private volatile boolean isReady = false;
     private int shardId;
     private BotContainer container;
+    private volatile JDAEventManager eventManager = null;
 
     public DiscordBot(int shardId, int numShards, BotContainer container) {
         queue = new RestQueue(this);
@@ -115,6 +117,10 @@ public class DiscordBot {
         return jda.get();
     }
 
+    public JDAEventManager getEventManager() {
+        return eventManager;
+    }
+
     public void restartJDA() throws LoginException, InterruptedException, RateLimitedException {
         JDABuilder builder = new JDABuilder(AccountType.BOT).setToken(BotConfig.BOT_TOKEN);
         if (totShards > 1) {
@@ -122,7 +128,13 @@ public class DiscordBot {
         }
         builder.setBulkDeleteSplittingEnabled(false);
         builder.setEnableShutdownHook(false);
-        builder.setEventManager(new JDAEventManager(this));
+        JDAEventManager previousManager = eventManager;
+        eventManager = new JDAEventManager(this);
+        if (previousManager != null) {
+            previousManager.shutdown();
+        }
+        builder.setEventManager(eventManager);
+        container.getIdentifyLimiter().acquire(shardId);
         System.out.println("STARTING SHARD " + shardId);
         jda.set(builder.buildBlocking());
         jda.get().addEventListener(new JDAEvents(this));
@@ -159,8 +171,16 @@ public class DiscordBot {
      * @return delete the message?
      */
     public boolean shouldCleanUpMessages(MessageChannel channel) {
-        String cleanupMethod = GuildSettings.getFor(channel, GSetting.CLEANUP_MESSAGES);
-        String myChannel = GuildSettings.getFor(channel, GSetting.BOT_CHANNEL);
+        String cleanupMethod;
+        String myChannel;
+        if (channel instanceof TextChannel) {
+            GuildSettings settings = GuildSettings.get(((TextChannel) channel).getGuild());
+            cleanupMethod = settings.getOrDefault(GSetting.CLEANUP_MESSAGES);
+            myChannel = settings.getOrDefault(GSetting.BOT_CHANNEL);
+        } else {
+            cleanupMethod = GSetting.CLEANUP_MESSAGES.getDefaultValue();
+            myChannel = GSetting.BOT_CHANNEL.getDefaultValue();
+        }
         if ("yes".equals(cleanupMethod)) {
             return true;
         } else if ("nonstandard".equals(cleanupMethod) && !channel.getName().equalsIgnoreCase(myChannel)) {
@@ -170,16 +190,12 @@ public class DiscordBot {
     }
 
     public void logGuildEvent(Guild guild, String category, String message) {
-        String channelIdentifier = GuildSettings.get(guild).getOrDefault(GSetting.BOT_CHANNEL);
+        GuildSettings settings = GuildSettings.get(guild);
+        String channelIdentifier = settings.getOrDefault(GSetting.BOT_CHANNEL);
         if ("false".equals(channelIdentifier)) {
             return;
         }
-        TextChannel channel;
-        if (channelIdentifier.matches("\\d{12,}")) {
-            channel = guild.getTextChannelById(channelIdentifier);
-        } else {
-            channel = DisUtil.findChannel(guild, channelIdentifier);
-        }
+        TextChannel channel = settings.getChannel(guild, GSetting.BOT_CHANNEL);
         if (channel == null || !channel.canTalk()) {
 //            GuildSettings.get(guild).set(guild, null, "false");
             if (channel == null) {
@@ -207,14 +223,8 @@ public class DiscordBot {
      * @param guild the guild to check
      * @return default chat channel
      */
-    public synchronized TextChannel getDefaultChannel(Guild guild) {
-        String channelIdentifier = GuildSettings.get(guild.getId()).getOrDefault(GSetting.BOT_CHANNEL);
-        TextChannel defaultChannel;
-        if (channelIdentifier.matches("\\d{12,}")) {
-            defaultChannel = guild.getTextChannelById(channelIdentifier);
-        } else {
-            defaultChannel = DisUtil.findChannel(guild, channelIdentifier);
-        }
+    public TextChannel getDefaultChannel(Guild guild) {
+        TextChannel defaultChannel = GuildSettings.get(guild).getChannel(guild, GSetting.BOT_CHANNEL);
         if (defaultChannel != null) {
             return defaultChannel;
         }
@@ -227,23 +237,16 @@ public class DiscordBot {
      * @param guild guild
      * @return default music channel
      */
-    public synchronized TextChannel getMusicChannel(Guild guild) {
+    public TextChannel getMusicChannel(Guild guild) {
         return getMusicChannel(guild.getId());
     }
 
-    public synchronized TextChannel getMusicChannel(String guildId) {
+    public TextChannel getMusicChannel(String guildId) {
         Guild guild = getJda().getGuildById(guildId);
         if (guild == null) {
             return null;
         }
-        String channelIdentifier = GuildSettings.get(guild.getId()).getOrDefault(GSetting.MUSIC_CHANNEL);
-        TextChannel channel;
-        if (channelIdentifier.matches("\\d{12,}")) {
-            channel = guild.getTextChannelById(channelIdentifier);
-        } else {
-            channel = DisUtil.findChannel(guild, channelIdentifier);
-        }
-
+        TextChannel channel = GuildSettings.get(guild).getChannel(guild, GSetting.MUSIC_CHANNEL);
         if (channel == null) {
             channel = getDefaultChannel(guild);
         }
@@ -357,8 +360,9 @@ public class DiscordBot {
         if (security.isBanned(author)) {
             return;
         }
-        if (CommandHandler.isCommand(null, message.getRawContent(), mentionMe, mentionMeAlias)) {
-            CommandHandler.process(this, channel, author, message.getRawContent());
+        CommandResolver.Input input = CommandHandler.parseCommand(null, message.getRawContent(), mentionMe, mentionMeAlias);
+        if (input != null) {
+            CommandHandler.process(this, channel, author, input);
         } else {
             channel.sendTyping();
             this.out.sendAsyncMessage(channel, this.chatBotHandler.chat("private", message.getRawContent()), null);
@@ -377,8 +381,9 @@ public class DiscordBot {
             gameHandler.execute(author, channel, message.getRawContent(), null);
             return;
         }
-        if (CommandHandler.isCommand(channel, message.getRawContent().trim(), mentionMe, mentionMeAlias)) {
-            CommandHandler.process(this, channel, author, message.getRawContent());
+        CommandResolver.Input input = CommandHandler.parseCommand(channel, message.getRawContent(), mentionMe, mentionMeAlias);
+        if (input != null) {
+            CommandHandler.process(this, channel, author, input);
             return;
         }
         if (GuildSettings.getFor(channel, GSetting.AUTO_REPLY).equals("true")) {
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.main;
+
+/**
+ * Limits how fast shards identify with the gateway
+ * <p>
+ * Discord allows one identify per bucket every 5 seconds, where the bucket of a shard is
+ * {@code shardId % maxConcurrency}. Each bucket is a token bucket holding a single token.
+ */
+public class IdentifyLimiter {
+    private static final long IDENTIFY_INTERVAL = 5_250L;
+    private final long[] nextAllowed;
+
+    /**
+     * @param maxConcurrency the max_concurrency reported by the gateway
+     */
+    public IdentifyLimiter(int maxConcurrency) {
+        nextAllowed = new long[Math.max(1, maxConcurrency)];
+    }
+
+    /**
+     * Blocks until the shard is allowed to identify
+     *
+     * @param shardId the shard which is about to identify
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void acquire(int shardId) throws InterruptedException {
+        long[] bucket = nextAllowed;
+        int index = shardId % bucket.length;
+        synchronized (this) {
+            long wait;
+            while ((wait = bucket[index] - System.currentTimeMillis()) > 0) {
+                wait(wait);
+            }
+            bucket[index] = System.currentTimeMillis() + IDENTIFY_INTERVAL;
+        }
+    }
+
+    public int getBuckets() {
+        return nextAllowed.length;
+    }
+}
@@ -17,6 +17,7 @@
 package emily.main;
 
 import com.kaaz.configuration.ConfigurationBuilder;
+import com.mashape.unirest.http.Unirest;
 import emily.core.ExitCode;
 import emily.core.Logger;
 import emily.db.DbUpdate;
@@ -24,7 +25,9 @@ import emily.db.WebDb;
 import emily.db.controllers.CBotPlayingOn;
 import emily.db.controllers.CGuild;
 import emily.db.controllers.CMusic;
+import emily.db.controllers.CPlaylist;
 import emily.db.model.OMusic;
+import emily.handler.CommandHandler;
 import emily.threads.GrayLogThread;
 import emily.threads.ServiceHandlerThread;
 import emily.util.YTUtil;
@@ -57,6 +60,13 @@ public class Launcher {
         }
     }
 
+    /**
+     * @return the log writer, null if graylog is not active
+     */
+    public static GrayLogThread getGrayLog() {
+        return GRAYLOG;
+    }
+
     public static void logToDiscord(Throwable e, Object... args) {
         if (botContainer != null) {
             botContainer.reportError(e, args);
@@ -70,6 +80,7 @@ public class Launcher {
     public static void main(String[] args) throws Exception {
         new ConfigurationBuilder(BotConfig.class, new File("application.cfg")).build(true);
         WebDb.init();
+        Unirest.setTimeouts(BotConfig.HTTP_CONNECT_TIMEOUT, BotConfig.HTTP_SOCKET_TIMEOUT);
         Launcher.init();
         if (BotConfig.BOT_ENABLED) {
             Runtime.getRuntime().addShutdownHook(new Thread(Launcher::shutdownHook));
@@ -95,8 +106,10 @@ public class Launcher {
         DiscordBot.LOGGER.info("Started with version: " + Launcher.version);
         DbUpdate dbUpdate = new DbUpdate(WebDb.get());
         dbUpdate.updateToCurrent();
-        Launcher.GRAYLOG = new GrayLogThread();
-        Launcher.GRAYLOG.start();
+        if (BotConfig.BOT_GRAYLOG_ACTIVE) {
+            Launcher.GRAYLOG = new GrayLogThread();
+            Launcher.GRAYLOG.start();
+        }
     }
 
     /**
@@ -119,6 +132,9 @@ public class Launcher {
     private static void shutdownHook() {
         if (botContainer != null) {
             for (DiscordBot discordBot : botContainer.getShards()) {
+                if (discordBot == null || discordBot.getJda() == null) {
+                    continue;
+                }
                 for (Guild guild : discordBot.getJda().getGuilds()) {
                     AudioManager audio = guild.getAudioManager();
                     if (audio.isConnected()) {
@@ -128,6 +144,12 @@ public class Launcher {
                 discordBot.getJda().shutdown();
             }
         }
+        CommandHandler.shutdown();
+        CPlaylist.flush();
+        if (GRAYLOG != null) {
+            GRAYLOG.shutdown();
+        }
+        WebDb.shutdown();
 
     }
 
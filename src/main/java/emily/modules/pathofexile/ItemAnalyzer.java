@@ -17,37 +17,50 @@
 package emily.modules.pathofexile;
 
 import emily.modules.pathofexile.obj.PoEItem;
-import org.reflections.Reflections;
+import emily.util.ClassRegistry;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 public class ItemAnalyzer {
     private static final String paragraphSplitter = "--------";
+    //the parts are stateless, so they're looked up once and shared
+    private static volatile List<IPoEAnalyzePart> analyzeParts = null;
     private final Pattern levelRequirementPattern = Pattern.compile("\nLevel: ([0-9]+)");
     private PoEItem item;
-    private List<IPoEAnalyzePart> analyzers = new ArrayList<>();
+    private List<IPoEAnalyzePart> analyzers;
     private List<Boolean> hasAnalyzed = new ArrayList<>();
 
     public ItemAnalyzer() {
-        loadAnalyzeParts();
+        analyzers = getAnalyzeParts();
+        for (int i = 0; i < analyzers.size(); i++) {
+            hasAnalyzed.add(false);
+        }
     }
 
-    private void loadAnalyzeParts() {
-        Reflections reflections = new Reflections("emily.modules.pathofexile.analyzepart");
-        Set<Class<? extends IPoEAnalyzePart>> classes = reflections.getSubTypesOf(IPoEAnalyzePart.class);
-        for (Class<? extends IPoEAnalyzePart> clazz : classes) {
-            try {
-                IPoEAnalyzePart obj = clazz.getConstructor().newInstance();
-                analyzers.add(obj);
-                hasAnalyzed.add(false);
-
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                e.printStackTrace();
+    private static List<IPoEAnalyzePart> getAnalyzeParts() {
+        List<IPoEAnalyzePart> parts = analyzeParts;
+        if (parts != null) {
+            return parts;
+        }
+        synchronized (ItemAnalyzer.class) {
+            if (analyzeParts == null) {
+                List<IPoEAnalyzePart> loaded = new ArrayList<>();
+                Set<Class<? extends IPoEAnalyzePart>> classes = ClassRegistry.getSubTypesOf(IPoEAnalyzePart.class, "emily.modules.pathofexile.analyzepart");
+                for (Class<? extends IPoEAnalyzePart> clazz : classes) {
+                    try {
+                        loaded.add(clazz.getConstructor().newInstance());
+                    } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+                        e.printStackTrace();
+                    }
+                }
+                analyzeParts = Collections.unmodifiableList(loaded);
             }
+            return analyzeParts;
         }
     }
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.modules.profile;
+
+import emily.main.Launcher;
+import net.dv8tion.jda.core.entities.User;
+
+import javax.imageio.ImageIO;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Images, fonts and avatars used to draw profile images, kept in memory after their first use
+ * <p>
+ * The images returned here are shared, they should only be drawn and never be modified.
+ */
+public class ProfileAssets {
+    private static final int MAX_AVATARS = 256;
+    private static final Map<String, BufferedImage> images = new ConcurrentHashMap<>();
+    private static final Map<String, Font> fonts = new ConcurrentHashMap<>();
+    private static final Map<String, BufferedImage> avatars = new LinkedHashMap<String, BufferedImage>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > MAX_AVATARS;
+        }
+    };
+
+    /**
+     * @param resource name of the image in the resources
+     * @return the decoded image
+     */
+    public static BufferedImage image(String resource) throws IOException {
+        try {
+            return images.computeIfAbsent(resource, name -> {
+                try {
+                    return ImageIO.read(Launcher.class.getClassLoader().getResource(name));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static Font font(String name, int style, int size) {
+        return fonts.computeIfAbsent(name + ":" + style + ":" + size, k -> new Font(name, style, size));
+    }
+
+    /**
+     * The avatar of a user, avatars are kept by their url so a changed avatar is downloaded again
+     *
+     * @param user the user
+     * @return the avatar or null when it could not be downloaded, see {@link #defaultAvatar()}
+     */
+    public static BufferedImage avatar(User user) throws IOException {
+        String url = user.getAvatarUrl() != null ? user.getAvatarUrl() : user.getDefaultAvatarUrl();
+        synchronized (avatars) {
+            BufferedImage cached = avatars.get(url);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BufferedImage avatar = null;
+        try {
+            URLConnection connection = new URL(url).openConnection();
+            connection.setRequestProperty("User-Agent", "bot emily-bot");
+            avatar = ImageIO.read(connection.getInputStream());
+        } catch (Exception ignored) {
+        }
+        if (avatar == null) {
+            return null;
+        }
+        synchronized (avatars) {
+            avatars.put(url, avatar);
+        }
+        return avatar;
+    }
+
+    /**
+     * @return the image to use when an avatar could not be downloaded
+     */
+    public static BufferedImage defaultAvatar() throws IOException {
+        return image("default_profile.jpg");
+    }
+
+    /**
+     * forgets every loaded image, font and avatar
+     */
+    static void clear() {
+        images.clear();
+        fonts.clear();
+        synchronized (avatars) {
+            avatars.clear();
+        }
+    }
+}
@@ -16,14 +16,10 @@
 
 package emily.modules.profile;
 
-import emily.main.Launcher;
 import net.dv8tion.jda.core.entities.User;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
 
 /**
  * Created on 28-9-2016
@@ -36,17 +32,12 @@ public abstract class ProfileImage {
         this.user = user;
     }
 
+    /**
+     * @return the avatar of the user or the default profile image when it could not be downloaded
+     */
     public BufferedImage getUserAvatar() throws IOException {
-
-        URLConnection connection = new URL(getUser().getAvatarUrl() != null ? getUser().getAvatarUrl() : getUser().getDefaultAvatarUrl()).openConnection();
-        connection.setRequestProperty("User-Agent", "bot emily-bot");
-        BufferedImage profileImg;
-        try {
-            profileImg = ImageIO.read(connection.getInputStream());
-        } catch (Exception ignored) {
-            profileImg = ImageIO.read(Launcher.class.getClassLoader().getResource("default_profile.jpg"));
-        }
-        return profileImg;
+        BufferedImage avatar = ProfileAssets.avatar(getUser());
+        return avatar != null ? avatar : ProfileAssets.defaultAvatar();
     }
 
     public User getUser() {
@@ -16,14 +16,12 @@
 
 package emily.modules.profile;
 
-import emily.main.Launcher;
 import emily.util.GfxUtil;
+import emily.util.ImagePipeline;
 import net.dv8tion.jda.core.entities.User;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 
 /**
@@ -35,9 +33,12 @@ public class ProfileImageV1 extends ProfileImage {
         super(user);
     }
 
-    public File getProfileImage() throws IOException {
-        Font defaultFont = new Font("Helvetica", Font.BOLD & Font.ITALIC, 36);
-        Font creditFont = new Font("comissans", Font.ITALIC, 20);
+    /**
+     * @return the profile image encoded as png
+     */
+    public byte[] getProfileImage() throws IOException {
+        Font defaultFont = ProfileAssets.font("Helvetica", Font.BOLD & Font.ITALIC, 36);
+        Font creditFont = ProfileAssets.font("comissans", Font.ITALIC, 20);
         BufferedImage result = new BufferedImage(
                 645, 265,
                 BufferedImage.TYPE_INT_ARGB);
@@ -46,7 +47,7 @@ public class ProfileImageV1 extends ProfileImage {
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         BufferedImage profileImg = getUserAvatar();
-        BufferedImage backgroundImage = ImageIO.read(Launcher.class.getClassLoader().getResource("profile_bg_test_2.png"));
+        BufferedImage backgroundImage = ProfileAssets.image("profile_bg_test_2.png");
 
         g.drawImage(profileImg, 66, 30, 197, 155, 0, 0, profileImg.getWidth(), profileImg.getHeight(), null);
         g.drawImage(backgroundImage, 0, 0, 645, 265, 0, 0, 645, 265, null);
@@ -54,8 +55,6 @@ public class ProfileImageV1 extends ProfileImage {
         GfxUtil.addCenterText(getUser().getName(), defaultFont, 125, 200, g, Color.black);
         GfxUtil.addText("made by Emily", creditFont, 506, 260, g, new Color(0xFFE7FA));
 
-        File file = new File("profile_v1_" + getUser().getId() + ".png");
-        ImageIO.write(result, "png", file);
-        return file;
+        return ImagePipeline.encodePng(result);
     }
 }
@@ -16,14 +16,12 @@
 
 package emily.modules.profile;
 
-import emily.main.Launcher;
 import emily.util.GfxUtil;
+import emily.util.ImagePipeline;
 import net.dv8tion.jda.core.entities.User;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.util.Random;
 
@@ -38,7 +36,10 @@ public class ProfileImageV2 extends ProfileImage {
         rng = new Random();
     }
 
-    public File getProfileImage() throws IOException {
+    /**
+     * @return the profile image encoded as png
+     */
+    public byte[] getProfileImage() throws IOException {
         int fontsize = 28;
         if (getUser().getName().length() <= 4) {
             fontsize = 32;
@@ -46,9 +47,9 @@ public class ProfileImageV2 extends ProfileImage {
         if (getUser().getName().length() > 8) {
             fontsize = 22;
         }
-        Font defaultFont = new Font("Forte", Font.BOLD + Font.ITALIC, fontsize);
-        Font score = new Font("Forte", Font.BOLD, 24);
-        Font creditFont = new Font("Forte", Font.ITALIC, 12);
+        Font defaultFont = ProfileAssets.font("Forte", Font.BOLD + Font.ITALIC, fontsize);
+        Font score = ProfileAssets.font("Forte", Font.BOLD, 24);
+        Font creditFont = ProfileAssets.font("Forte", Font.ITALIC, 12);
         BufferedImage result = new BufferedImage(
                 320, 265,
                 BufferedImage.TYPE_INT_ARGB);
@@ -57,7 +58,7 @@ public class ProfileImageV2 extends ProfileImage {
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         BufferedImage profileImg = getUserAvatar();
-        BufferedImage backgroundImage = ImageIO.read(Launcher.class.getClassLoader().getResource("profile_bg_5.png"));
+        BufferedImage backgroundImage = ProfileAssets.image("profile_bg_5.png");
 
         g.drawImage(profileImg, 18, 33, 141, 159, 0, 0, profileImg.getWidth(), profileImg.getHeight(), null);
         g.drawImage(backgroundImage, 0, 0, 320, 265, 0, 0, 320, 265, null);
@@ -72,8 +73,6 @@ public class ProfileImageV2 extends ProfileImage {
         GfxUtil.addCenterText("" + rng.nextInt(100), score, 31, 246, g, new Color(0x5c7e32));//health
         GfxUtil.addCenterText("" + rng.nextInt(100), score, 134, 246, g, new Color(0x5c7e32));//attack
         GfxUtil.addCenterText("" + rng.nextInt(100), score, 237, 246, g, new Color(0x5c7e32));//defense
-        File file = new File("profile_v2_" + getUser().getId() + ".png");
-        ImageIO.write(result, "png", file);
-        return file;
+        return ImagePipeline.encodePng(result);
     }
 }
@@ -18,46 +18,98 @@ package emily.modules.profile;
 
 import emily.db.controllers.CUser;
 import emily.db.model.OUser;
-import emily.main.Launcher;
 import emily.util.GfxUtil;
+import emily.util.ImagePipeline;
 import net.dv8tion.jda.core.entities.User;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 public class ProfileImageV3 extends ProfileImage {
-
+    private static final int MAX_RENDERED = 128;
+    //rendered images by everything that is drawn on them
+    private static final Map<String, byte[]> rendered = new LinkedHashMap<String, byte[]>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_RENDERED;
+        }
+    };
 
     public ProfileImageV3(User user) {
         super(user);
     }
 
-    public File getProfileImage() throws IOException {
-        Random rng = new Random(Long.parseLong(getUser().getId()));
+    /**
+     * @return the profile image encoded as png, reused while the name, avatar, level and xp of the user stay the same
+     */
+    public byte[] getProfileImage() throws IOException {
+        OUser dbuser = CUser.findBy(getUser().getId());
+        double level = Math.log(dbuser.commandsUsed + 1);//+1 for this command
+        int xpPercent = (int) ((level % 1D) * 100D);
+        String key = getUser().getId() + ":" + getUser().getName() + ":" + getUser().getAvatarId() + ":" + (int) level + ":" + xpPercent;
+        byte[] image = getRendered(key);
+        if (image != null) {
+            return image;
+        }
+        BufferedImage avatar = ProfileAssets.avatar(getUser());
+        image = ImagePipeline.encodePng(draw(getUser().getName(), Long.parseLong(getUser().getId()),
+                avatar != null ? avatar : ProfileAssets.defaultAvatar(), level, xpPercent));
+        if (avatar != null) {
+            //an image with the default avatar isn't kept, the next request tries to download the avatar again
+            putRendered(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * @param key everything that is drawn on the image
+     * @return the encoded image or null if it isn't known
+     */
+    static byte[] getRendered(String key) {
+        synchronized (rendered) {
+            return rendered.get(key);
+        }
+    }
+
+    static void putRendered(String key, byte[] image) {
+        synchronized (rendered) {
+            rendered.put(key, image);
+        }
+    }
+
+    /**
+     * draws the profile image
+     *
+     * @param name      name of the user
+     * @param seed      seed for the stats, the id of the user
+     * @param avatar    avatar of the user
+     * @param level     level of the user
+     * @param xpPercent progress towards the next level
+     * @return the image
+     */
+    static BufferedImage draw(String name, long seed, BufferedImage avatar, double level, int xpPercent) throws IOException {
+        Random rng = new Random(seed);
         int fontSize;
-        if (getUser().getName().length() <= 4) {
+        if (name.length() <= 4) {
             fontSize = 32;
-        } else if (getUser().getName().length() < 12) {
+        } else if (name.length() < 12) {
             fontSize = 22;
-        } else if (getUser().getName().length() < 25) {
+        } else if (name.length() < 25) {
             fontSize = 18;
         } else {
             fontSize = 14;
         }
-        OUser dbuser = CUser.findBy(getUser().getId());
-        double level = Math.log(dbuser.commandsUsed + 1);//+1 for this command
-        int xpPercent = (int) ((level % 1D) * 100D);
         int skillPoints = (int) level + 3;
         int health = rng.nextInt(skillPoints);
         int attack = rng.nextInt(skillPoints - health);
         int defense = skillPoints - health - attack;
-        Font defaultFont = new Font("Forte", Font.BOLD + Font.ITALIC, fontSize);
-        Font score = new Font("Forte", Font.BOLD, 24);
-        Font creditFont = new Font("Forte", Font.ITALIC, 12);
+        Font defaultFont = ProfileAssets.font("Forte", Font.BOLD + Font.ITALIC, fontSize);
+        Font score = ProfileAssets.font("Forte", Font.BOLD, 24);
+        Font creditFont = ProfileAssets.font("Forte", Font.ITALIC, 12);
         BufferedImage result = new BufferedImage(
                 320, 265,
                 BufferedImage.TYPE_INT_ARGB);
@@ -65,16 +117,16 @@ public class ProfileImageV3 extends ProfileImage {
         g.setRenderingHint(
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        BufferedImage profileImg = getUserAvatar();
-        BufferedImage backgroundImage = ImageIO.read(Launcher.class.getClassLoader().getResource("profile_bg_6.png"));
-        BufferedImage xpProgressBar = ImageIO.read(Launcher.class.getClassLoader().getResource("progressbar.png"));
+        BufferedImage profileImg = avatar;
+        BufferedImage backgroundImage = ProfileAssets.image("profile_bg_6.png");
+        BufferedImage xpProgressBar = ProfileAssets.image("progressbar.png");
 
         g.drawImage(profileImg, 18, 33, 141, 159, 0, 0, profileImg.getWidth(), profileImg.getHeight(), null);
         g.drawImage(backgroundImage, 0, 0, 320, 265, 0, 0, 320, 265, null);
         g.drawImage(xpProgressBar, 137, 133, 317 - (int) ((181D / 100D) * (100D - xpPercent)), 148, 0, 0, 175, 15, null);
 
-        GfxUtil.addCenterShadow(getUser().getName(), defaultFont, 222, 71 + (fontSize / 2), g, Color.black);
-        GfxUtil.addCenterText(getUser().getName(), defaultFont, 222, 71 + (fontSize / 2), g, Color.white);
+        GfxUtil.addCenterShadow(name, defaultFont, 222, 71 + (fontSize / 2), g, Color.black);
+        GfxUtil.addCenterText(name, defaultFont, 222, 71 + (fontSize / 2), g, Color.white);
         GfxUtil.addRightText("made by Emily", creditFont, 318, 199, g, new Color(0x3A3A38));
         GfxUtil.addCenterShadow("" + xpPercent + "%", creditFont, 218, 145, g, Color.black);
         GfxUtil.addCenterText("" + xpPercent + "%", creditFont, 218, 145, g, new Color(0xf37000));//% xp
@@ -90,8 +142,7 @@ public class ProfileImageV3 extends ProfileImage {
 //			g.setColor(GfxUtil.getThreatLevel(i / 100d));
 //			g.fillRect(i * w, 0, w, 200);
 //		}
-        File file = new File("profile_v3_" + getUser().getId() + ".png");
-        ImageIO.write(result, "png", file);
-        return file;
+        g.dispose();
+        return result;
     }
 }
@@ -25,6 +25,7 @@ import emily.modules.reddit.pojo.CommentData;
 import emily.modules.reddit.pojo.InitialData;
 import emily.modules.reddit.pojo.InitialDataComment;
 import emily.modules.reddit.pojo.Post;
+import emily.util.HttpCache;
 import emily.util.HttpHelper;
 
 import java.util.ArrayList;
@@ -47,9 +48,9 @@ public class RedditScraper {
     }
 
     public static List<Post> getDailyTop(String subreddit) {
-        String response = HttpHelper.doRequest(RedditConstants.URL + RedditConstants.SUBREDDIT_INDICATOR + subreddit + "/top.json?sort=top&t=day&limit=100");
+        String response = HttpHelper.doCachedRequest(HttpCache.Source.REDDIT, RedditConstants.URL + RedditConstants.SUBREDDIT_INDICATOR + subreddit.toLowerCase() + "/top.json?sort=top&t=day&limit=100");
         InitialData listing = gson.fromJson(response, InitialData.class);
-        if (listing.data != null && listing.data.children != null) {
+        if (listing != null && listing.data != null && listing.data.children != null) {
             return listing.data.children;
         }
         return new ArrayList<>();
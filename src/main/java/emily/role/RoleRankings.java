@@ -16,7 +16,9 @@
 
 package emily.role;
 
+import emily.db.controllers.CGuild;
 import emily.db.controllers.CGuildMember;
+import emily.db.controllers.CUser;
 import emily.db.model.OGuildMember;
 import emily.guildsettings.GSetting;
 import emily.handler.GuildSettings;
@@ -24,6 +26,7 @@ import emily.main.DiscordBot;
 import emily.main.Launcher;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Role;
 import net.dv8tion.jda.core.entities.User;
 import net.dv8tion.jda.core.managers.RoleManagerUpdatable;
@@ -34,8 +37,10 @@ import org.slf4j.LoggerFactory;
 import java.awt.*;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -248,4 +253,105 @@ public class RoleRankings {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Brings the membership roles of all members of a guild up to date.
+     * The join dates are loaded in one query, only members whose roles differ from their target get changes queued.
+     *
+     * @param bot        the shard the guild is on
+     * @param guild      the guild
+     * @param maxChanges max amount of members to change, the rest is picked up in the next run
+     * @return counts of what happened
+     */
+    public static SyncResult syncGuild(DiscordBot bot, Guild guild, int maxChanges) {
+        SyncResult result = new SyncResult();
+        String prefix = getPrefix(guild);
+        Map<MemberShipRole, Role> guildRoles = new HashMap<>();
+        for (MemberShipRole rank : roles) {
+            List<Role> found = guild.getRolesByName(getFullName(guild, rank), true);
+            if (!found.isEmpty()) {
+                guildRoles.put(rank, found.get(0));
+            }
+        }
+        int guildId = CGuild.getCachedId(guild.getIdLong());
+        Map<Long, Long> joinDates = CGuildMember.getJoinDates(guildId);
+        Map<Long, String> newMembers = new HashMap<>();
+        Map<Long, Long> newJoinDates = new HashMap<>();
+        Member self = guild.getSelfMember();
+        long now = System.currentTimeMillis();
+        for (Member member : guild.getMembers()) {
+            User user = member.getUser();
+            if (user.isBot()) {
+                continue;
+            }
+            result.scanned++;
+            Long joined = joinDates.get(user.getIdLong());
+            if (joined == null) {
+                joined = member.getJoinDate().toInstant().toEpochMilli();
+                newMembers.put(user.getIdLong(), user.getName());
+                newJoinDates.put(user.getIdLong(), joined);
+            }
+            MemberShipRole target = getHighestRole(now - joined);
+            String targetName = getFullName(guild, target);
+            Role targetRole = guildRoles.get(target);
+            boolean hasTargetRole = false;
+            List<Role> toRemove = new ArrayList<>();
+            for (Role role : member.getRoles()) {
+                if (role.getName().startsWith(prefix)) {
+                    if (role.getName().equals(targetName)) {
+                        hasTargetRole = true;
+                    } else {
+                        toRemove.add(role);
+                    }
+                }
+            }
+            boolean toAdd = !hasTargetRole && targetRole != null;
+            if (!toAdd && toRemove.isEmpty()) {
+                continue;
+            }
+            if (result.changed >= maxChanges || (toAdd && !PermissionUtil.canInteract(self, targetRole))) {
+                result.skipped++;
+                continue;
+            }
+            result.changed++;
+            for (Role role : toRemove) {
+                bot.out.removeRole(user, role);
+            }
+            if (toAdd) {
+                bot.out.addRole(user, targetRole);
+            }
+        }
+        if (!newMembers.isEmpty()) {
+            List<OGuildMember> newRecords = new ArrayList<>();
+            for (Map.Entry<Long, Integer> entry : CUser.getCachedIds(newMembers).entrySet()) {
+                OGuildMember record = new OGuildMember();
+                record.guildId = guildId;
+                record.userId = entry.getValue();
+                record.joinDate = new Timestamp(newJoinDates.get(entry.getKey()));
+                newRecords.add(record);
+            }
+            CGuildMember.insertOrUpdate(newRecords);
+        }
+        return result;
+    }
+
+    /**
+     * Counts of a ranking sync
+     */
+    public static class SyncResult {
+        public int scanned = 0;
+        public int changed = 0;
+        public int skipped = 0;
+
+        public void add(SyncResult other) {
+            scanned += other.scanned;
+            changed += other.changed;
+            skipped += other.skipped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("scanned: %s, changed: %s, skipped: %s", scanned, changed, skipped);
+        }
+    }
+}
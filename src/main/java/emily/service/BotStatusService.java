@@ -17,6 +17,7 @@
 package emily.service;
 
 import emily.core.AbstractService;
+import emily.handler.discord.RestQueue;
 import emily.main.BotContainer;
 import emily.main.BotConfig;
 import emily.main.DiscordBot;
@@ -99,7 +100,7 @@ public class BotStatusService extends AbstractService {
         TextChannel inviteChannel = bot.getShardFor(BotConfig.BOT_GUILD_ID).getJda().getTextChannelById(BotConfig.BOT_CHANNEL_ID);
         if (inviteChannel != null && roll < 10) {
             String fallback = "Feedback @ https://discord.gg/eaywDDt | #%s";
-            bot.getShardFor(BotConfig.BOT_GUILD_ID).queue.add(inviteChannel.getInvites(),
+            bot.getShardFor(BotConfig.BOT_GUILD_ID).queue.add(RestQueue.Priority.STATS, inviteChannel.getIdLong(), inviteChannel.getInvites(),
                     invites -> {
                         if (invites != null && !invites.isEmpty()) {
                             setGameOnShards(bot, "Feedback @ https://discord.gg/" + invites.get(0).getCode() + " | %s");
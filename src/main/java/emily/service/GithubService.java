@@ -26,12 +26,14 @@ import emily.util.GfxUtil;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.entities.TextChannel;
 
+import java.awt.Color;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * check for news on github
@@ -101,8 +103,8 @@ public class GithubService extends AbstractService {
             }
         }
         if (commitCount > 0) {
+            CompletableFuture<Color> avatarColor = GfxUtil.getAverageColorAsync(committerAvatar);
             EmbedBuilder embed = new EmbedBuilder();
-            embed.setColor(GfxUtil.getAverageColor(committerAvatar));
             embed.setAuthor(committerName, committerUrl, committerAvatar);
             if (commitCount == 1) {
                 embed.setTitle("There has been a commit to my repository", null);
@@ -144,9 +146,12 @@ public class GithubService extends AbstractService {
                 description += BotConfig.EOL;
             }
             embed.setDescription(description);
-            for (TextChannel chan : getSubscribedChannels()) {
-                sendTo(chan, embed.build());
-            }
+            avatarColor.thenAccept(color -> {
+                embed.setColor(color);
+                for (TextChannel chan : getSubscribedChannels()) {
+                    sendTo(chan, embed.build());
+                }
+            });
         }
         saveData("last_date", newLastKnownCommitTimestamp);
     }
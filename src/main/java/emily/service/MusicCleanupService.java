@@ -17,19 +17,14 @@
 package emily.service;
 
 import emily.core.AbstractService;
-import emily.db.WebDb;
-import emily.db.controllers.CMusic;
-import emily.db.model.OMusic;
+import emily.handler.MusicCache;
 import emily.main.BotContainer;
-import emily.main.Launcher;
+import emily.main.DiscordBot;
 
-import java.io.File;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.concurrent.TimeUnit;
 
 /**
- * cleans up unused cached music files
+ * keeps the music directory within its size budget, see {@link MusicCache}
  */
 public class MusicCleanupService extends AbstractService {
 
@@ -44,7 +39,7 @@ public class MusicCleanupService extends AbstractService {
 
     @Override
     public long getDelayBetweenRuns() {
-        return TimeUnit.DAYS.toMillis(1);
+        return TimeUnit.HOURS.toMillis(1);
     }
 
     @Override
@@ -58,28 +53,13 @@ public class MusicCleanupService extends AbstractService {
 
     @Override
     public void run() {
-        long olderThan = (System.currentTimeMillis() / 1000L) - TimeUnit.DAYS.toSeconds(7);
-        try (ResultSet rs = WebDb.get().select("SELECT m.* " +
-                " FROM music m " +
-                " WHERE m.lastplaydate < ? " +
-                " AND m.file_exists = 1 " +
-                " ORDER BY lastplaydate DESC", olderThan)) {
-            while (rs.next()) {
-                OMusic record = CMusic.fillRecord(rs);
-                File file = new File(record.filename);
-                if (file.exists()) {
-                    file.delete();
-                }
-                record.fileExists = 0;
-                CMusic.update(record);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            Launcher.logToDiscord(e);
+        int evicted = MusicCache.trimToBudget(bot);
+        if (evicted > 0) {
+            DiscordBot.LOGGER.info("Music cache: evicted {} files, {}", evicted, MusicCache.getStats());
         }
     }
 
     @Override
     public void afterRun() {
     }
-}
\ No newline at end of file
+}
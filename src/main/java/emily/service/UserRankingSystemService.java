@@ -19,6 +19,7 @@ package emily.service;
 import emily.core.AbstractService;
 import emily.guildsettings.GSetting;
 import emily.handler.GuildSettings;
+import emily.main.BotConfig;
 import emily.main.BotContainer;
 import emily.main.DiscordBot;
 import emily.main.Launcher;
@@ -32,6 +33,10 @@ import java.util.concurrent.TimeUnit;
  * updates the ranking of members within a guild
  */
 public class UserRankingSystemService extends AbstractService {
+    private static volatile String lastRun = "not run yet";
+    private RoleRankings.SyncResult total;
+    private int guildCount;
+    private long startedAt;
 
     public UserRankingSystemService(BotContainer b) {
         super(b);
@@ -52,8 +57,18 @@ public class UserRankingSystemService extends AbstractService {
         return true;
     }
 
+    /**
+     * @return counts of the most recent run
+     */
+    public static String getLastRun() {
+        return lastRun;
+    }
+
     @Override
     public void beforeRun() {
+        total = new RoleRankings.SyncResult();
+        guildCount = 0;
+        startedAt = System.currentTimeMillis();
     }
 
     @Override
@@ -75,11 +90,13 @@ public class UserRankingSystemService extends AbstractService {
 
     private void handleGuild(DiscordBot bot, Guild guild) {
         RoleRankings.fixForServer(guild);
-        guild.getMembers().stream().filter(user -> !user.getUser().isBot()).forEach(user -> RoleRankings.assignUserRole(bot, guild, user.getUser()));
+        total.add(RoleRankings.syncGuild(bot, guild, BotConfig.USER_RANKING_MAX_CHANGES_PER_GUILD));
+        guildCount++;
     }
 
     @Override
     public void afterRun() {
-        System.gc();
+        lastRun = String.format("guilds: %s, %s, took %sms", guildCount, total, System.currentTimeMillis() - startedAt);
+        DiscordBot.LOGGER.info("Ranking sync: {}", lastRun);
     }
 }
\ No newline at end of file
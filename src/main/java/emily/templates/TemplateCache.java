@@ -19,6 +19,7 @@ package emily.templates;
 import emily.db.WebDb;
 import emily.db.controllers.CGuild;
 import emily.main.BotContainer;
+import emily.main.DiscordBot;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -57,8 +58,13 @@ public class TemplateCache {
         }
     }
 
-    public static void initGuildTemplates(BotContainer container) {
-        guildDictionary.clear();
+    /**
+     * loads the guild specific templates for the guilds of a shard
+     *
+     * @param shard the shard which just became ready
+     */
+    public static synchronized void initGuildTemplates(DiscordBot shard) {
+        BotContainer container = shard.getContainer();
         HashSet<Integer> skipList = new HashSet<>();
         HashSet<Integer> whiteList = new HashSet<>();
         try (ResultSet rs = WebDb.get().select("SELECT id,guild_id, keyphrase, text FROM template_texts WHERE guild_id > 0 ORDER BY guild_id")) {
@@ -68,14 +74,14 @@ public class TemplateCache {
                 if (skipList.contains(guildId)) {
                     continue;
                 }
-                long discordGuildId = Long.parseLong(CGuild.getCachedDiscordId(guildId));
                 if (!whiteList.contains(guildId)) {
-                    if (container.getShardFor(discordGuildId).getJda().getGuildById(Long.toString(discordGuildId)) == null) {
+                    long discordGuildId = Long.parseLong(CGuild.getCachedDiscordId(guildId));
+                    if (container.calcShardId(discordGuildId) != shard.getShardId() || shard.getJda().getGuildById(discordGuildId) == null) {
                         skipList.add(guildId);
                         continue;
-                    } else {
-                        whiteList.add(guildId);
                     }
+                    whiteList.add(guildId);
+                    guildDictionary.remove(guildId);
                 }
                 addToGuildCache(guildId, keyphrase, rs.getString("text"));
             }
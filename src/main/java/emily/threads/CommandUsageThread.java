@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.threads;
+
+import emily.db.controllers.CCommandLog;
+import emily.db.controllers.CUser;
+import emily.db.model.OCommandLog;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for command usage
+ * <p>
+ * Command logs and per-user usage counters are collected in memory and written to the database
+ * in batches, either when {@link #BATCH_SIZE} logs are pending or every {@link #FLUSH_INTERVAL} milliseconds.
+ * Counter increments for the same user are coalesced into a single update.
+ */
+public class CommandUsageThread extends Thread {
+    private static final int BATCH_SIZE = 250;
+    private static final int MAX_PENDING = 10_000;
+    private static final long FLUSH_INTERVAL = 5_000L;
+    private final BlockingQueue<OCommandLog> pendingLogs = new ArrayBlockingQueue<>(MAX_PENDING);
+    private final Map<Integer, Integer> pendingUsage = new ConcurrentHashMap<>();
+    private final Object signal = new Object();
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong written = new AtomicLong(0);
+    private volatile boolean terminated = false;
+
+    public CommandUsageThread() {
+        super("command-usage-writer");
+        setDaemon(true);
+    }
+
+    /**
+     * queues a command log record
+     *
+     * @param userId      internal user id
+     * @param guildId     internal guild id
+     * @param commandUsed the command
+     * @param commandArgs arguments of the command
+     */
+    public void logCommand(int userId, int guildId, String commandUsed, String commandArgs) {
+        OCommandLog record = new OCommandLog();
+        record.userId = userId;
+        record.guildId = guildId;
+        record.command = commandUsed;
+        record.args = commandArgs;
+        record.executeDate = new Timestamp(System.currentTimeMillis());
+        if (!pendingLogs.offer(record)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (pendingLogs.size() >= BATCH_SIZE) {
+            synchronized (signal) {
+                signal.notify();
+            }
+        }
+    }
+
+    /**
+     * increments the commands used counter for a user
+     *
+     * @param userId internal user id
+     */
+    public void registerCommandUse(int userId) {
+        pendingUsage.merge(userId, 1, Integer::sum);
+    }
+
+    @Override
+    public void run() {
+        while (!terminated) {
+            try {
+                synchronized (signal) {
+                    if (pendingLogs.size() < BATCH_SIZE) {
+                        signal.wait(FLUSH_INTERVAL);
+                    }
+                }
+                flush();
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * writes everything that is pending to the database
+     */
+    private synchronized void flush() {
+        List<OCommandLog> batch = new ArrayList<>(BATCH_SIZE);
+        while (pendingLogs.drainTo(batch, BATCH_SIZE) > 0) {
+            CCommandLog.saveLogs(batch);
+            written.addAndGet(batch.size());
+            batch.clear();
+        }
+        if (!pendingUsage.isEmpty()) {
+            Map<Integer, Integer> usage = new HashMap<>();
+            for (Integer userId : pendingUsage.keySet()) {
+                Integer count = pendingUsage.remove(userId);
+                if (count != null) {
+                    usage.put(userId, count);
+                }
+            }
+            CUser.registerCommandUse(usage);
+        }
+    }
+
+    /**
+     * stops the writer and writes the remaining items
+     *
+     * @param timeout max time in milliseconds to wait for the remaining items to be written
+     */
+    public void shutdown(long timeout) {
+        terminated = true;
+        synchronized (signal) {
+            signal.notify();
+        }
+        try {
+            join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public int getPendingLogs() {
+        return pendingLogs.size();
+    }
+
+    public int getPendingUsers() {
+        return pendingUsage.size();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
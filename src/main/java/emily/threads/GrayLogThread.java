@@ -16,7 +16,9 @@
 
 package emily.threads;
 
+import com.google.gson.Gson;
 import emily.main.BotConfig;
+import emily.main.DiscordBot;
 import emily.main.Launcher;
 import org.graylog2.gelfclient.GelfConfiguration;
 import org.graylog2.gelfclient.GelfMessage;
@@ -25,50 +27,110 @@ import org.graylog2.gelfclient.GelfMessageLevel;
 import org.graylog2.gelfclient.GelfTransports;
 import org.graylog2.gelfclient.transport.GelfTransport;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Sending messages to graylog
+ * <p>
+ * Callers only put the raw fields in a bounded queue, when the queue is full the message is dropped and counted.
+ * The messages are built and sent in batches on this thread, either to graylog or to a local file ({@link BotConfig#BOT_GRAYLOG_SINK}).
  */
 public class GrayLogThread extends Thread {
-    private LinkedBlockingQueue<GelfMessage> itemsToLog = new LinkedBlockingQueue<>();
+    private static final int BATCH_SIZE = 256;
+    private static final long SHUTDOWN_TIMEOUT = 10_000L;
+    private final BlockingQueue<LogEvent> itemsToLog;
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
     private volatile boolean loggerTerminated = false;
-    private GelfTransport transport;
-    private GelfMessageBuilder builder;
+    private Sink sink;
 
     public GrayLogThread() throws InterruptedException {
         super("graylog-writer");
+        setDaemon(true);
+        itemsToLog = new ArrayBlockingQueue<>(Math.max(1, BotConfig.BOT_GRAYLOG_QUEUE_SIZE));
         connect();
     }
 
-    private void connect() throws InterruptedException {
-        GelfConfiguration config = new GelfConfiguration(new InetSocketAddress(BotConfig.BOT_GRAYLOG_HOST, BotConfig.BOT_GRAYLOG_PORT))
-                .transport(GelfTransports.UDP)
-                .queueSize(512)
-                .connectTimeout(5000)
-                .reconnectDelay(1000)
-                .tcpNoDelay(true)
-                .sendBufferSize(32768);
-        transport = GelfTransports.create(config);
-        builder = new GelfMessageBuilder("??", BotConfig.BOT_WEBSITE)
-                .level(GelfMessageLevel.INFO)
-                .additionalField("env", BotConfig.BOT_ENV);
+    private void connect() {
+        if ("file".equalsIgnoreCase(BotConfig.BOT_GRAYLOG_SINK)) {
+            sink = new FileSink(new File(BotConfig.BOT_GRAYLOG_FILE));
+        } else {
+            sink = new GelfSink();
+        }
     }
 
     public void run() {
+        List<LogEvent> batch = new ArrayList<>(BATCH_SIZE);
         try {
-            GelfMessage logMessage;
             while (!loggerTerminated && !Launcher.isBeingKilled) {
-                logMessage = itemsToLog.take();
-                transport.trySend(logMessage);
+                batch.add(itemsToLog.take());
+                itemsToLog.drainTo(batch, BATCH_SIZE - 1);
+                send(batch, false);
+                batch.clear();
             }
-        } catch (InterruptedException iex) {
+        } catch (InterruptedException ignored) {
         } finally {
             loggerTerminated = true;
+            //the interrupt from shutdown() is done, the remaining messages may wait for the sink
+            Thread.interrupted();
+            send(batch, true);
+            batch.clear();
+            while (itemsToLog.drainTo(batch, BATCH_SIZE) > 0) {
+                send(batch, true);
+                batch.clear();
+            }
+            sink.close();
+        }
+    }
+
+    /**
+     * Stops accepting messages, sends everything still in the queue and closes the sink
+     */
+    public void shutdown() {
+        loggerTerminated = true;
+        interrupt();
+        try {
+            join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * @param blocking wait for the sink to accept each message instead of dropping it when the sink is busy
+     */
+    private void send(List<LogEvent> batch, boolean blocking) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            int ok = sink.send(batch, blocking);
+            sent.addAndGet(ok);
+            failed.addAndGet(batch.size() - ok);
+        } catch (Exception e) {
+            failed.addAndGet(batch.size());
+            DiscordBot.LOGGER.warn("Failed to write {} log messages: {}", batch.size(), e.getMessage());
+        }
+        batches.incrementAndGet();
+    }
+
     /**
      * @param message the log message
      * @param type    the category of the log message
@@ -77,23 +139,168 @@ public class GrayLogThread extends Thread {
      */
     public void log(String message, String type, String subtype, Object... args) {
         if (loggerTerminated) return;
-        try {
-            GelfMessage msg = builder.message(message).build();
-            msg.setFullMessage(message);
-            for (int i = 0; i < args.length; i += 2) {
+        if (itemsToLog.offer(new LogEvent(message, type, subtype, args))) {
+            queued.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sink: %s, pending: %s, queued: %s, sent: %s, failed: %s, dropped: %s, batches: %s",
+                sink, itemsToLog.size(), queued.get(), sent.get(), failed.get(), dropped.get(), batches.get());
+    }
+
+    /**
+     * Where the log messages end up
+     */
+    private interface Sink {
+        /**
+         * @return amount of messages which were accepted
+         */
+        int send(List<LogEvent> batch, boolean blocking) throws IOException, InterruptedException;
+
+        void close();
+    }
+
+    /**
+     * The fields of a log message, as given by the caller
+     */
+    private static class LogEvent {
+        private final String message;
+        private final String type;
+        private final String subtype;
+        private final Object[] args;
+        private final long timestamp = System.currentTimeMillis();
+
+        private LogEvent(String message, String type, String subtype, Object[] args) {
+            this.message = message;
+            this.type = type;
+            this.subtype = subtype;
+            this.args = args;
+        }
+
+        /**
+         * the extra fields, pairs are read until a null key or value
+         */
+        private Map<String, Object> fields() {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            for (int i = 0; i + 1 < args.length; i += 2) {
                 if (args[i] == null || args[i + 1] == null) {
                     break;
                 }
-                msg.addAdditionalField(String.valueOf(args[i]), args[i + 1]);
+                fields.put(String.valueOf(args[i]), args[i + 1]);
             }
-            msg.addAdditionalField("event", type);
-            msg.addAdditionalField("sub-event", subtype);
+            fields.put("event", type);
+            fields.put("sub-event", subtype);
+            return fields;
+        }
+    }
 
-            msg.setTimestamp(System.currentTimeMillis() / 1000L);
-            itemsToLog.put(msg);
-        } catch (InterruptedException iex) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("Unexpected interruption");
+    private static class GelfSink implements Sink {
+        private final GelfTransport transport;
+        private final GelfMessageBuilder builder;
+
+        private GelfSink() {
+            GelfConfiguration config = new GelfConfiguration(new InetSocketAddress(BotConfig.BOT_GRAYLOG_HOST, BotConfig.BOT_GRAYLOG_PORT))
+                    .transport(GelfTransports.UDP)
+                    .queueSize(512)
+                    .connectTimeout(5000)
+                    .reconnectDelay(1000)
+                    .tcpNoDelay(true)
+                    .sendBufferSize(32768);
+            transport = GelfTransports.create(config);
+            builder = new GelfMessageBuilder("??", BotConfig.BOT_WEBSITE)
+                    .level(GelfMessageLevel.INFO)
+                    .additionalField("env", BotConfig.BOT_ENV);
+        }
+
+        @Override
+        public int send(List<LogEvent> batch, boolean blocking) throws InterruptedException {
+            int ok = 0;
+            for (LogEvent event : batch) {
+                GelfMessage msg = builder.message(event.message).build();
+                msg.setFullMessage(event.message);
+                for (Map.Entry<String, Object> field : event.fields().entrySet()) {
+                    msg.addAdditionalField(field.getKey(), field.getValue());
+                }
+                msg.setTimestamp(event.timestamp / 1000L);
+                if (blocking) {
+                    transport.send(msg);
+                    ok++;
+                } else if (transport.trySend(msg)) {
+                    ok++;
+                }
+            }
+            return ok;
+        }
+
+        @Override
+        public void close() {
+            transport.stop();
+        }
+
+        @Override
+        public String toString() {
+            return "gelf " + BotConfig.BOT_GRAYLOG_HOST + ":" + BotConfig.BOT_GRAYLOG_PORT;
+        }
+    }
+
+    /**
+     * Writes the messages as json lines to a local file
+     */
+    private static class FileSink implements Sink {
+        private final Gson gson = new Gson();
+        private final File file;
+        private BufferedWriter writer;
+
+        private FileSink(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public int send(List<LogEvent> batch, boolean blocking) throws IOException {
+            if (writer == null) {
+                if (file.getParentFile() != null) {
+                    file.getParentFile().mkdirs();
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            for (LogEvent event : batch) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("timestamp", TimeUnit.MILLISECONDS.toSeconds(event.timestamp));
+                line.put("env", BotConfig.BOT_ENV);
+                line.put("message", event.message);
+                line.putAll(event.fields());
+                writer.write(gson.toJson(line));
+                writer.newLine();
+            }
+            writer.flush();
+            return batch.size();
+        }
+
+        @Override
+        public void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "file " + file.getPath();
         }
     }
 }
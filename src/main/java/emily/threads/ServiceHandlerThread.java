@@ -19,7 +19,7 @@ package emily.threads;
 import emily.core.AbstractService;
 import emily.main.BotContainer;
 import emily.main.Launcher;
-import org.reflections.Reflections;
+import emily.util.ClassRegistry;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
@@ -37,8 +37,7 @@ public class ServiceHandlerThread extends Thread {
     }
 
     private void initServices() {
-        Reflections reflections = new Reflections("emily.service");
-        Set<Class<? extends AbstractService>> classes = reflections.getSubTypesOf(AbstractService.class);
+        Set<Class<? extends AbstractService>> classes = ClassRegistry.getSubTypesOf(AbstractService.class, "emily.service");
         for (Class<? extends AbstractService> serviceClass : classes) {
             try {
                 instances.add(serviceClass.getConstructor(BotContainer.class).newInstance(bot));
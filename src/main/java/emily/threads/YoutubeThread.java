@@ -21,58 +21,84 @@ import emily.db.controllers.CBotEvent;
 import emily.db.controllers.CMusic;
 import emily.db.model.OBotEvent;
 import emily.db.model.OMusic;
-import emily.handler.Template;
+import emily.handler.MusicCache;
 import emily.main.BotContainer;
 import emily.main.BotConfig;
 import emily.main.Launcher;
 import emily.util.YTUtil;
-import net.dv8tion.jda.core.Permission;
-import net.dv8tion.jda.core.entities.Message;
-import net.dv8tion.jda.core.entities.TextChannel;
-import net.dv8tion.jda.core.utils.PermissionUtil;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Threads for grabbing tracks from youtube
+ * <p>
+ * There is at most one download per video code, everyone requesting the same video shares its {@link Download}.
+ * Downloads wait in a queue ordered by {@link Priority}, at most {@link BotConfig#YOUTUBEDL_MAX_CONCURRENT} run at the same time.
  */
 public class YoutubeThread extends Thread {
-    private final HashSet<String> itemsInProgress = new HashSet<>();
-    private final AtomicInteger counter = new AtomicInteger(0);
+    private static final Pattern PROGRESS_PATTERN = Pattern.compile("^\\[download\\]\\s+(\\d{1,3})(?:\\.\\d+)?%");
+    private static final long PROCESS_TIMEOUT = 2L;
+    private final ConcurrentHashMap<String, Download> downloads = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Download> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Semaphore slots;
     private final ExecutorService executor;
-    private final LinkedBlockingQueue<YoutubeTask> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService callbacks;
+    private final ScheduledExecutorService watchdog;
     private final BotContainer container;
     private volatile boolean shutdownMode = false;
 
     public YoutubeThread(BotContainer container) throws InterruptedException {
         super("yt-to-mp3");
         this.container = container;
-        executor = Executors.newFixedThreadPool(4);
+        int maxConcurrent = Math.max(1, BotConfig.YOUTUBEDL_MAX_CONCURRENT);
+        slots = new Semaphore(maxConcurrent);
+        executor = Executors.newFixedThreadPool(maxConcurrent, r -> new Thread(r, "yt-to-mp3 worker"));
+        callbacks = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "yt-to-mp3 callbacks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "yt-to-mp3 watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
      * downloads a youtube video as an mp3
      *
-     * @param videocode youtube video id
+     * @param download the download, receives the progress
      * @return success or not
      */
-    private static boolean downloadFileFromYoutube(String videocode) {
+    private boolean downloadFileFromYoutube(Download download) {
+        String videocode = download.code;
         List<String> infoArgs = new LinkedList<>();
         infoArgs.add(BotConfig.YOUTUBEDL_EXE);
         infoArgs.add("--no-check-certificate");
+        infoArgs.add("--newline");
         infoArgs.add("-x");
         if (BotConfig.YOUTUBEDL_DEBUG_PROCESS) {
             infoArgs.add("-v");
@@ -96,56 +122,89 @@ public class YoutubeThread extends Thread {
         infoArgs.add("https://www.youtube.com/watch?v=" + videocode);
         ProcessBuilder builder = new ProcessBuilder().command(infoArgs);
         builder.redirectErrorStream(true);
+        Process process = null;
+        ScheduledFuture<?> timeout = null;
         try {
-            Process process = builder.start();
-            if (BotConfig.YOUTUBEDL_DEBUG_PROCESS) {
-                StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream());
-                StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream());
-                errorGobbler.start();
-                outputGobbler.start();
+            process = builder.start();
+            download.process = process;
+            if (download.isCancelled()) {
+                return false;
             }
-            process.waitFor(2, TimeUnit.MINUTES);
-            process.destroy();
+            timeout = watchdog.schedule(process::destroyForcibly, PROCESS_TIMEOUT, TimeUnit.MINUTES);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (BotConfig.YOUTUBEDL_DEBUG_PROCESS) {
+                        System.out.println(line);
+                    }
+                    Matcher matcher = PROGRESS_PATTERN.matcher(line);
+                    if (matcher.find()) {
+                        download.setProgress(Integer.parseInt(matcher.group(1)));
+                    }
+                }
+            }
+            process.waitFor(10, TimeUnit.SECONDS);
         } catch (IOException | InterruptedException e) {
             Launcher.logToDiscord(e);
             e.printStackTrace();
             return false;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (process != null) {
+                process.destroy();
+            }
+            download.process = null;
         }
         return true;
     }
 
-    private synchronized void registerProgress(String youtubeCode) {
-        itemsInProgress.add(youtubeCode);
-    }
-
-    private synchronized void unRegisterProgress(String youtubeCode) {
-        itemsInProgress.remove(youtubeCode);
-        counter.decrementAndGet();
-    }
-
     public void shutown() {
         shutdownMode = true;
+        interrupt();
+        for (Download download : downloads.values()) {
+            download.cancelAll();
+        }
+        executor.shutdown();
+        watchdog.shutdown();
+        callbacks.shutdown();
     }
 
-    public synchronized boolean isInProgress(String youtubeCode) {
-        return itemsInProgress.contains(youtubeCode);
+    public boolean isInProgress(String youtubeCode) {
+        return downloads.containsKey(youtubeCode);
     }
 
+    /**
+     * @return amount of downloads queued or running
+     */
     public int getQueueSize() {
-        return counter.get();
+        return downloads.size();
     }
 
     public void run() {
         try {
-            YoutubeTask task;
-
             while (!shutdownMode && !Launcher.isBeingKilled) {
                 try {
-                    task = queue.take();
-                    executor.execute(new YTWorkerWorker(task.getCode(), task));
-                    counter.incrementAndGet();
+                    Download download = queue.take();
+                    slots.acquire();
+                    if (!download.state.compareAndSet(Download.QUEUED, Download.RUNNING)) {
+                        slots.release();
+                        continue;
+                    }
+                    executor.execute(() -> {
+                        File result = null;
+                        try {
+                            result = process(download);
+                        } finally {
+                            slots.release();
+                            complete(download, result);
+                        }
+                    });
                 } catch (InterruptedException e) {
-                    Launcher.logToDiscord(e);
+                    if (!shutdownMode) {
+                        Launcher.logToDiscord(e);
+                    }
                 }
             }
         } finally {
@@ -156,133 +215,195 @@ public class YoutubeThread extends Thread {
         }
     }
 
-    public void addToQueue(String youtubeCode, String youtubeTitle, Message message, Consumer<Message> callback) {
+    /**
+     * Requests a track, if the track is already being downloaded the running download is shared
+     *
+     * @param youtubeCode  the video code
+     * @param youtubeTitle title of the video, may be empty
+     * @param priority     how urgent the request is
+     * @return the download, call {@link Download#cancel()} when no longer interested
+     */
+    public Download download(String youtubeCode, String youtubeTitle, Priority priority) {
         if (shutdownMode) {
-            return;
+            Download download = new Download(youtubeCode, youtubeTitle, priority, 0);
+            download.future.cancel(false);
+            return download;
+        }
+        while (true) {
+            Download download = downloads.computeIfAbsent(youtubeCode, code -> {
+                Download created = new Download(code, youtubeTitle, priority, sequence.incrementAndGet());
+                queue.offer(created);
+                return created;
+            });
+            if (download.join()) {
+                if (priority.ordinal() < download.priority.ordinal() && queue.remove(download)) {
+                    download.priority = priority;
+                    queue.offer(download);
+                }
+                return download;
+            }
+            //the download got cancelled in the meantime, start a new one
+            downloads.remove(youtubeCode, download);
         }
-        queue.offer(new YoutubeTask(youtubeCode, youtubeTitle, message, callback));
     }
 
-    private static class StreamGobbler extends Thread {
-        private InputStream is;
-
-        public StreamGobbler(InputStream is) {
-            this.is = is;
+    /**
+     * @return the downloaded file or null if it failed
+     */
+    private File process(Download download) {
+        File result = null;
+        try {
+            final File fileCheck = new File(YTUtil.getOutputPath(download.code));
+            if (!fileCheck.exists() && !download.isCancelled()) {
+                downloadFileFromYoutube(download);
+            }
+            if (fileCheck.exists()) {
+                OMusic rec = CMusic.findByYoutubeId(download.code);
+                rec.youtubeTitle = (!download.title.isEmpty() && !download.title.equals(download.code)) ? EmojiParser.parseToAliases(download.title) : EmojiParser.parseToAliases(YTUtil.getTitleFromPage(download.code));
+                rec.youtubecode = download.code;
+                rec.filename = fileCheck.toPath().toRealPath().toString();
+                rec.playCount += 1;
+                rec.fileExists = 1;
+                rec.lastManualPlaydate = System.currentTimeMillis() / 1000L;
+                CMusic.update(rec);
+                if (rec.duration == 0) {
+                    YTUtil.getTrackDuration(rec);
+                }
+                result = fileCheck;
+                MusicCache.added(fileCheck);
+                MusicCache.trimToBudget(container);
+            }
+        } catch (Exception e) {
+            Launcher.logToDiscord(e, "yt-code", download.code);
         }
+        return result;
+    }
 
-        public void run() {
-            try {
-                InputStreamReader isr = new InputStreamReader(is);
-                BufferedReader br = new BufferedReader(isr);
-                String line;
-                while ((line = br.readLine()) != null) {
-                    System.out.println(line);
-                }
-            } catch (IOException ex) {
-                // ex.printStackTrace();
+    /**
+     * Completes the download once its slot is free again, the callbacks of the requesters run on their own threads
+     * so they can't hold up other downloads
+     */
+    private void complete(Download download, File result) {
+        downloads.remove(download.code, download);
+        boolean cancelled = download.state.getAndSet(Download.DONE) == Download.CANCELLED;
+        Runnable completion = () -> {
+            if (cancelled) {
+                download.future.cancel(false);
+            } else {
+                download.future.complete(result);
             }
+        };
+        try {
+            callbacks.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
         }
     }
 
-    private class YoutubeTask {
+    /**
+     * explicit requests are handled before tracks which are fetched in the background
+     */
+    public enum Priority {
+        REQUEST, PREFETCH
+    }
+
+    /**
+     * A download shared by everyone who requested the video
+     */
+    public class Download implements Comparable<Download> {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
         private final String code;
         private final String title;
-        private final Message message;
-        private final Consumer<Message> callback;
+        private final long order;
+        private final CompletableFuture<File> future = new CompletableFuture<>();
+        private final CopyOnWriteArrayList<IntConsumer> progressListeners = new CopyOnWriteArrayList<>();
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final AtomicInteger requesters = new AtomicInteger(0);
+        private volatile Priority priority;
+        private volatile Process process = null;
+        private volatile int progress = 0;
 
-        public YoutubeTask(String code, String title, Message message, Consumer<Message> callback) {
+        private Download(String code, String title, Priority priority, long order) {
             this.code = code;
-            this.message = message;
-            this.callback = callback;
-            this.title = title;
-
+            this.title = title == null ? "" : title;
+            this.priority = priority;
+            this.order = order;
         }
 
-        public Consumer<Message> getCallback() {
-            return callback;
+        /**
+         * @return false if the download is already cancelled
+         */
+        private synchronized boolean join() {
+            if (state.get() == CANCELLED) {
+                return false;
+            }
+            requesters.incrementAndGet();
+            return true;
         }
 
-        public Message getMessage() {
-            return message;
+        /**
+         * completes with the downloaded file, or null if the download failed
+         */
+        public CompletableFuture<File> getFuture() {
+            return future;
         }
 
-        public String getCode() {
-            return code;
+        /**
+         * @param listener receives the download percentage whenever it changes
+         */
+        public void onProgress(IntConsumer listener) {
+            progressListeners.add(listener);
         }
 
-        public String getTitle() {
-            return title;
+        private void setProgress(int percentage) {
+            if (percentage == progress) {
+                return;
+            }
+            progress = percentage;
+            for (IntConsumer listener : progressListeners) {
+                listener.accept(percentage);
+            }
         }
-    }
 
-    class YTWorkerWorker extends Thread {
-        private final YoutubeTask task;
-
-        YTWorkerWorker(String identifier, YoutubeTask task) {
-            super("yt-to-mp3 worker #" + identifier);
-            this.task = task;
+        public int getProgress() {
+            return progress;
         }
 
-        public void run() {
-            try {
-                if (shutdownMode) {
-                    return;
-                }
+        public boolean isCancelled() {
+            return state.get() == CANCELLED || future.isCancelled();
+        }
 
-                if (isInProgress(task.getCode())) {
-                    if (task.message != null) {
-                        container.getShardFor(task.getMessage().getTextChannel().getGuild().getId())
-                                .out.editBlocking(task.message, Template.get("music_downloading_in_progress", task.getTitle()));
-                    }
-                    return;
-                }
-                registerProgress(task.getCode());
+        /**
+         * Withdraws a request, the download is cancelled when nobody is interested anymore
+         */
+        public synchronized void cancel() {
+            if (requesters.decrementAndGet() <= 0) {
+                cancelAll();
+            }
+        }
 
-                final File fileCheck = new File(YTUtil.getOutputPath(task.getCode()));
-                if (!fileCheck.exists()) {
-                    if (task.message != null) {
-                        container.getShardFor(task.getMessage().getTextChannel().getGuild().getId())
-                                .out.editBlocking(task.message, Template.get("music_downloading_hang_on"));
-                    }
-                    downloadFileFromYoutube(task.getCode());
-                }
-                if (fileCheck.exists()) {
-                    OMusic rec = CMusic.findByYoutubeId(task.getCode());
-                    rec.youtubeTitle = (!task.getTitle().isEmpty() && !task.getTitle().equals(task.getCode())) ? EmojiParser.parseToAliases(task.getTitle()) : EmojiParser.parseToAliases(YTUtil.getTitleFromPage(task.getCode()));
-                    rec.youtubecode = task.getCode();
-                    rec.filename = fileCheck.toPath().toRealPath().toString();
-                    rec.playCount += 1;
-                    rec.fileExists = 1;
-                    rec.lastManualPlaydate = System.currentTimeMillis() / 1000L;
-                    CMusic.update(rec);
-                    if (rec.duration == 0) {
-                        YTUtil.getTrackDuration(rec);
-                    }
-                }
-                if (task.getCallback() != null) {
-                    if (task.getMessage() == null) {
-                        task.getCallback().accept(null);
-                        return;
-                    }
-                    TextChannel channel = container.getShardFor(task.getMessage().getTextChannel().getGuild().getId()).getJda().getTextChannelById(task.getMessage().getTextChannel().getId());
-                    if (channel == null || !PermissionUtil.checkPermission(channel, channel.getGuild().getSelfMember(), Permission.MESSAGE_READ, Permission.MESSAGE_HISTORY)) {
-                        task.getCallback().accept(null);
-                        return;
-                    }
-                    container.getShardFor(task.getMessage().getTextChannel().getGuild().getId()).queue.add(channel.getMessageById(task.getMessage().getId()),
-                            message -> {
-                                if (message != null) {
-                                    task.getCallback().accept(message);
-                                    return;
-                                }
-                                task.getCallback().accept(null);
-                            });
+        private synchronized void cancelAll() {
+            if (state.compareAndSet(QUEUED, CANCELLED)) {
+                queue.remove(this);
+                downloads.remove(code, this);
+                future.cancel(false);
+                return;
+            }
+            if (state.compareAndSet(RUNNING, CANCELLED)) {
+                Process running = process;
+                if (running != null) {
+                    running.destroyForcibly();
                 }
-            } catch (Exception e) {
-                Launcher.logToDiscord(e, "yt-code", task.getCode());
-            } finally {
-                unRegisterProgress(task.getCode());
             }
         }
+
+        @Override
+        public int compareTo(Download other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds which of a fixed set of keywords occur in a text, in one pass over the text.
+ * Matching ignores the case of ascii letters, the same way {@link java.util.regex.Pattern#CASE_INSENSITIVE} does
+ */
+public class AhoCorasick {
+    private static final int[] NONE = new int[0];
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    private final int[][] outputs;
+
+    /**
+     * @param keywords the keywords to look for, a keyword is reported by its index in this list
+     */
+    public AhoCorasick(List<String> keywords) {
+        List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        List<List<Integer>> own = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        own.add(new ArrayList<>());
+        for (int k = 0; k < keywords.size(); k++) {
+            int node = 0;
+            String keyword = keywords.get(k);
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = toLower(keyword.charAt(i));
+                Integer next = edges.get(node).get(c);
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new TreeMap<>());
+                    own.add(new ArrayList<>());
+                    edges.get(node).put(c, next);
+                }
+                node = next;
+            }
+            own.get(node).add(k);
+        }
+        int size = edges.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> map = edges.get(node);
+            edgeChars[node] = new char[map.size()];
+            edgeTargets[node] = new int[map.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                edgeChars[node][i] = entry.getKey();
+                edgeTargets[node][i] = entry.getValue();
+                i++;
+            }
+        }
+        fail = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(own.get(0), NONE);
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            outputs[node] = toArray(own.get(node), outputs[fail[node]]);
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                int child = edgeTargets[node][i];
+                int f = fail[node];
+                int target;
+                while ((target = step(f, edgeChars[node][i])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target < 0 ? 0 : target;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] result = Arrays.copyOf(inherited, inherited.length + own.size());
+        for (int i = 0; i < own.size(); i++) {
+            result[inherited.length + i] = own.get(i);
+        }
+        return result;
+    }
+
+    private static char toLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    private int step(int node, char c) {
+        int i = Arrays.binarySearch(edgeChars[node], c);
+        return i < 0 ? -1 : edgeTargets[node][i];
+    }
+
+    /**
+     * @param text    the text to search
+     * @param onMatch receives the index of each keyword found, a keyword can be reported more than once
+     */
+    public void search(CharSequence text, IntConsumer onMatch) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = toLower(text.charAt(i));
+            int next;
+            while ((next = step(node, c)) < 0 && node != 0) {
+                node = fail[node];
+            }
+            node = next < 0 ? 0 : next;
+            for (int keyword : outputs[node]) {
+                onMatch.accept(keyword);
+            }
+        }
+    }
+}
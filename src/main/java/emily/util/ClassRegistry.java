@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import emily.build.RegistryProcessor;
+import emily.main.DiscordBot;
+import org.reflections.Reflections;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Finds the implementations of a class from the list written at compile time by {@link RegistryProcessor}.
+ * When there is no list, for example when running from an IDE without annotation processing, or the list names a class
+ * which can't be loaded, the classpath is scanned instead
+ */
+public class ClassRegistry {
+
+    /**
+     * @param base        the class or interface
+     * @param packageName only classes in this package (or below)
+     * @return the non-abstract implementations
+     */
+    public static <T> Set<Class<? extends T>> getSubTypesOf(Class<T> base, String packageName) {
+        ClassLoader loader = ClassRegistry.class.getClassLoader();
+        InputStream in = loader.getResourceAsStream(RegistryProcessor.REGISTRY_PATH + base.getName());
+        if (in == null) {
+            DiscordBot.LOGGER.warn("No class registry for {}, scanning {} instead", base.getSimpleName(), packageName);
+            return new Reflections(packageName).getSubTypesOf(base);
+        }
+        Set<Class<? extends T>> classes = new LinkedHashSet<>();
+        String prefix = packageName + ".";
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.startsWith(prefix)) {
+                    continue;
+                }
+                try {
+                    classes.add(Class.forName(line, false, loader).asSubclass(base));
+                } catch (ClassNotFoundException | ClassCastException | LinkageError e) {
+                    DiscordBot.LOGGER.warn("Class registry entry {} is stale ({}), scanning {} instead", line, e.toString(), packageName);
+                    return new Reflections(packageName).getSubTypesOf(base);
+                }
+            }
+        } catch (IOException e) {
+            DiscordBot.LOGGER.warn("Could not read the class registry for {}, scanning {} instead", base.getSimpleName(), packageName);
+            return new Reflections(packageName).getSubTypesOf(base);
+        }
+        return classes;
+    }
+}
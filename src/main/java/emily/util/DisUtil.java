@@ -16,7 +16,6 @@
 
 package emily.util;
 
-import com.google.api.client.repackaged.com.google.common.base.Joiner;
 import emily.db.controllers.CGuild;
 import emily.db.model.OGuild;
 import emily.guildsettings.DefaultGuildSettings;
@@ -26,7 +25,6 @@ import emily.main.BotConfig;
 import emily.main.BotContainer;
 import emily.main.Launcher;
 import net.dv8tion.jda.core.JDA;
-import net.dv8tion.jda.core.OnlineStatus;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Channel;
 import net.dv8tion.jda.core.entities.Guild;
@@ -45,7 +43,6 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -199,58 +196,15 @@ public class DisUtil {
 
     /**
      * Replaces tags with a variable
+     * Text which is rendered often should be compiled once with {@link TagTemplate#compile(String)} instead
      *
      * @param input   the message to replace tags in
      * @param user    user info for user related tags
      * @param channel channel/guild info
      * @return formatted string
      */
-
     public static String replaceTags(String input, User user, MessageChannel channel, String[] userArgs) {
-        Guild guild = null;
-        if (channel instanceof TextChannel) {
-            guild = ((TextChannel) channel).getGuild();
-        }
-        String output = input.replace("\\%", "\u0013");
-        output = output
-                .replace("%user%", user.getName())
-                .replace("%user-mention%", user.getAsMention())
-                .replace("%user-id%", user.getId())
-                .replace("%nick%", guild != null && guild.isMember(user) ? guild.getMember(user).getEffectiveName() : user.getName())
-                .replace("%discrim%", user.getDiscriminator())
-                .replace("%guild%", (guild == null) ? "Private" : guild.getName())
-                .replace("%guild-id%", (guild == null) ? "0" : guild.getId())
-                .replace("%guild-users%", (guild == null) ? "0" : guild.getMembers().size() + "")
-                .replace("%channel%", (guild == null) ? "Private" : channel.getName())
-                .replace("%channel-id%", (guild == null) ? "0" : channel.getId())
-                .replace("%channel-mention%", (guild == null) ? "Private" : ((TextChannel) channel).getAsMention());
-        if (guild == null) {
-            return output.replace("\u0013", "%");
-        }
-        if (userArgs != null && output.contains("%arg")) {
-            String allArgs = Joiner.on(" ").join(userArgs);
-            output = output.replace("%args%", allArgs);
-            for (int i = 0; i < userArgs.length; i++) {
-                output = output.replace("%arg" + (i + 1) + "%", userArgs[i]);
-            }
-        }
-        int ind;
-        Random rng = new Random();
-        while ((ind = output.indexOf("%rand-user%")) != -1) {
-            output = output.substring(0, ind) +
-                    guild.getMembers().get(rng.nextInt(guild.getMembers().size())).getEffectiveName()
-                    + output.substring(ind + 11);
-        }
-
-        if (output.contains("%rand-user-online%")) {
-            List<Member> onlines = new ArrayList<>();
-            guild.getMembers().stream().filter((u) -> (u.getOnlineStatus().equals(OnlineStatus.ONLINE))).forEach(onlines::add);
-            while ((ind = output.indexOf("%rand-user-online%")) != -1)
-                output = output.substring(0, ind) +
-                        onlines.get(rng.nextInt(onlines.size())).getEffectiveName()
-                        + output.substring(ind + 18);
-        }
-        return output.replace("\u0013", "%");
+        return TagTemplate.compile(input).render(user, channel, userArgs);
     }
 
     /**
@@ -16,17 +16,43 @@
 
 package emily.util;
 
-import com.mashape.unirest.http.Unirest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import emily.main.BotConfig;
 import emily.main.Launcher;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * some helpful methods when creating images
  */
 public class GfxUtil {
+    private static final Color FALLBACK_COLOR = new Color(27, 137, 255);
+    private static final int AVERAGE_COLOR_SIZE = 64;
+    private static final int MAX_AVERAGE_COLORS = 1024;
+    private static final long FAILED_COLOR_RETRY = TimeUnit.MINUTES.toMillis(10);
+    //average colors by image url, discord includes the hash of an avatar or icon in its url
+    private static final Map<String, AverageColor> averageColors = new LinkedHashMap<String, AverageColor>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AverageColor> eldest) {
+            return size() > MAX_AVERAGE_COLORS;
+        }
+    };
+    private static final ExecutorService colorWorkers = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("average-color-%d").setDaemon(true).build());
 
     public static void addCenterText(String text, Font font, int x, int y, Graphics g, Color color) {
         g.setFont(font);
@@ -49,10 +75,13 @@ public class GfxUtil {
     }
 
     public static void addCenterShadow(String text, Font font, int x, int y, Graphics g, Color color) {
-        addCenterText(text, font, x + 1, y + 1, g, color);
-        addCenterText(text, font, x + 1, y - 1, g, color);
-        addCenterText(text, font, x - 1, y + 1, g, color);
-        addCenterText(text, font, x - 1, y - 1, g, color);
+        g.setFont(font);
+        g.setColor(color);
+        int halfWidth = (int) g.getFontMetrics().getStringBounds(text, g).getWidth() / 2;
+        g.drawString(text, Math.max(0, x + 1 - halfWidth), y + 1);
+        g.drawString(text, Math.max(0, x + 1 - halfWidth), y - 1);
+        g.drawString(text, Math.max(0, x - 1 - halfWidth), y + 1);
+        g.drawString(text, Math.max(0, x - 1 - halfWidth), y - 1);
     }
 
     public static void addText(String text, Font font, int x, int y, Graphics g, Color color) {
@@ -70,36 +99,104 @@ public class GfxUtil {
     }
 
     /**
-     * Returns the average color of an image
+     * Returns the average color of an image, blocks until it is known
      *
      * @param url the url to get the image
      * @return average color OR fallback color in case of invalid url
      */
     public static Color getAverageColor(String url) {
+        return getAverageColorAsync(url).join();
+    }
+
+    /**
+     * Returns the average color of an image, the image is only downloaded the first time a url is seen
+     *
+     * @param url the url to get the image
+     * @return future completing with the average color OR fallback color in case of invalid url
+     */
+    public static CompletableFuture<Color> getAverageColorAsync(String url) {
         if (url == null) {
-            return new Color(27, 137, 255);
+            return CompletableFuture.completedFuture(FALLBACK_COLOR);
+        }
+        long now = System.currentTimeMillis();
+        CompletableFuture<Color> future;
+        synchronized (averageColors) {
+            AverageColor cached = averageColors.get(url);
+            if (cached != null && cached.expires > now) {
+                return cached.color;
+            }
+            future = new CompletableFuture<>();
+            averageColors.put(url, new AverageColor(future, Long.MAX_VALUE));
         }
-        try {
-            BufferedImage img = ImageIO.read(Unirest.get(url).asBinary().getRawBody());
-            int x0 = 0;
-            int y0 = 0;
-            int x1 = x0 + img.getWidth();
-            int y1 = y0 + img.getHeight();
-            long sumr = 0, sumg = 0, sumb = 0;
-            for (int x = x0; x < x1; x++) {
-                for (int y = y0; y < y1; y++) {
-                    Color pixel = new Color(img.getRGB(x, y));
-                    sumr += pixel.getRed();
-                    sumg += pixel.getGreen();
-                    sumb += pixel.getBlue();
+        colorWorkers.execute(() -> {
+            try {
+                future.complete(averageColor(ImagePipeline.download(sizedUrl(url), BotConfig.IMAGE_MAX_DOWNLOAD_SIZE)));
+            } catch (Exception e) {
+                Launcher.logToDiscord(e, "img-url", url);
+                synchronized (averageColors) {
+                    averageColors.put(url, new AverageColor(future, System.currentTimeMillis() + FAILED_COLOR_RETRY));
                 }
+                future.complete(FALLBACK_COLOR);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * discord serves avatars and icons in any size, a small one is enough to find the average
+     */
+    private static String sizedUrl(String url) {
+        if (url.startsWith("https://cdn.discordapp.com/") && !url.contains("?")) {
+            return url + "?size=" + AVERAGE_COLOR_SIZE;
+        }
+        return url;
+    }
+
+    /**
+     * decodes at most about {@link #AVERAGE_COLOR_SIZE} pixels per side and averages them straight from the raster
+     *
+     * @param data the encoded image
+     * @return the average color
+     * @throws IOException when the data is not a readable image
+     */
+    static Color averageColor(byte[] data) throws IOException {
+        BufferedImage img;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a supported image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / AVERAGE_COLOR_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                img = reader.read(0, param);
+            } finally {
+                reader.dispose();
             }
-            int num = img.getWidth() * img.getHeight();
-            return new Color((int) sumr / num, (int) sumg / num, (int) sumb / num);
-        } catch (Exception e) {
-            Launcher.logToDiscord(e, "img-url", url);
-            e.printStackTrace();
         }
-        return new Color(27, 137, 255);
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
+        long sumr = 0, sumg = 0, sumb = 0;
+        for (int pixel : pixels) {
+            sumr += (pixel >> 16) & 0xff;
+            sumg += (pixel >> 8) & 0xff;
+            sumb += pixel & 0xff;
+        }
+        int num = pixels.length;
+        return new Color((int) (sumr / num), (int) (sumg / num), (int) (sumb / num));
+    }
+
+    private static class AverageColor {
+        private final CompletableFuture<Color> color;
+        private final long expires;
+
+        private AverageColor(CompletableFuture<Color> color, long expires) {
+            this.color = color;
+            this.expires = expires;
+        }
     }
 }
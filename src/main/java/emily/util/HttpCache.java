@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import emily.main.BotConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps responses of external sites in memory
+ * <p>
+ * A response is fresh for the ttl of its {@link Source}. After that it is still served for a while
+ * and refreshed in the background. Only one request per url is made at a time, other callers wait for its result.
+ * When a refresh fails the old response is used for as long as it is kept.
+ * The least recently used responses are dropped once the cache grows beyond its size.
+ */
+public class HttpCache {
+    private static volatile HttpCache shared = null;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+    private final Fetcher fetcher;
+    private final long maxSize;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong staleHits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private long size = 0;
+
+    /**
+     * @param maxSize max size of the kept responses in bytes (approximately)
+     * @param fetcher does the actual requests, can be replaced with a stub
+     */
+    public HttpCache(long maxSize, Fetcher fetcher) {
+        this.maxSize = maxSize;
+        this.fetcher = fetcher;
+        refresher = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+                .setNameFormat("http-cache-refresh-%d")
+                .setDaemon(true).build());
+    }
+
+    /**
+     * @return the cache used by {@link HttpHelper}
+     */
+    public static HttpCache shared() {
+        if (shared == null) {
+            synchronized (HttpCache.class) {
+                if (shared == null) {
+                    shared = new HttpCache(BotConfig.HTTP_CACHE_MAX_SIZE_KB * 1024L, HttpHelper::get);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param source what is requested, decides how long the response is kept
+     * @param url    the url
+     * @return the response body
+     * @throws IOException when there is no usable response and the request failed
+     */
+    public String get(Source source, String url) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(url);
+        }
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.fetchedAt;
+            if (age < source.ttl) {
+                hits.incrementAndGet();
+                return entry.body;
+            }
+            if (age < source.ttl + source.staleFor) {
+                staleHits.incrementAndGet();
+                refreshInBackground(url);
+                return entry.body;
+            }
+        }
+        misses.incrementAndGet();
+        try {
+            return load(url);
+        } catch (IOException e) {
+            if (entry != null) {
+                return entry.body;
+            }
+            throw e;
+        }
+    }
+
+    private void refreshInBackground(String url) {
+        if (inFlight.containsKey(url)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                load(url);
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    /**
+     * requests the url, or waits for the request which is already running for it
+     */
+    private String load(String url) throws IOException {
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(url, mine);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            String body = fetcher.fetch(url);
+            put(url, body);
+            mine.complete(body);
+            return body;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(url, mine);
+        }
+    }
+
+    private static String await(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private synchronized void put(String url, String body) {
+        Entry entry = new Entry(body);
+        Entry old = entries.put(url, entry);
+        if (old != null) {
+            size -= old.weight;
+        }
+        size += entry.weight;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && entries.size() > 1 && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest == entry) {
+                continue;
+            }
+            size -= eldest.weight;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("entries: %s, size: %s/%s KB, hits: %s, stale hits: %s, misses: %s, failures: %s, evictions: %s",
+                entries.size(), size / 1024L, maxSize / 1024L, hits.get(), staleHits.get(), misses.get(), failures.get(), evictions.get());
+    }
+
+    /**
+     * The sites which are cached, with how long their responses are fresh and how long they may be served stale after that
+     */
+    public enum Source {
+        REDDIT(TimeUnit.MINUTES.toMillis(10), TimeUnit.HOURS.toMillis(1)),
+        URBAN_DICTIONARY(TimeUnit.DAYS.toMillis(1), TimeUnit.DAYS.toMillis(1)),
+        CAT_FACTS(TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)),
+        JOKES(TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1));
+
+        private final long ttl;
+        private final long staleFor;
+
+        Source(long ttl, long staleFor) {
+            this.ttl = ttl;
+            this.staleFor = staleFor;
+        }
+    }
+
+    /**
+     * Does the request for a url
+     */
+    public interface Fetcher {
+        /**
+         * @param url the url
+         * @return the response body
+         * @throws IOException when the request failed or the response was not successful
+         */
+        String fetch(String url) throws IOException;
+    }
+
+    private static class Entry {
+        private final String body;
+        private final long fetchedAt = System.currentTimeMillis();
+        private final long weight;
+
+        private Entry(String body) {
+            this.body = body;
+            this.weight = 64L + body.length() * 2L;
+        }
+    }
+}
@@ -16,10 +16,13 @@
 
 package emily.util;
 
+import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import emily.main.BotConfig;
 
+import java.io.IOException;
+
 /**
  * Created on 8-9-2016
  */
@@ -37,4 +40,37 @@ public class HttpHelper {
         }
         return "";
     }
+
+    /**
+     * @param url the url to request to
+     * @return the response body
+     * @throws IOException when the request failed or the status is not 2xx
+     */
+    public static String get(String url) throws IOException {
+        try {
+            HttpResponse<String> response = Unirest.get(url).header("User-Agent", BotConfig.USER_AGENT).asString();
+            if (response.getStatus() < 200 || response.getStatus() >= 300) {
+                throw new IOException("HTTP " + response.getStatus() + " for " + url);
+            }
+            return response.getBody();
+        } catch (UnirestException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Requests a url through the {@link HttpCache}
+     *
+     * @param source what is requested
+     * @param url    the url to request to
+     * @return a string containing the response, empty if there is none
+     */
+    public static String doCachedRequest(HttpCache.Source source, String url) {
+        try {
+            return HttpCache.shared().get(source, url);
+        } catch (IOException e) {
+            System.out.println("Request to " + url + " failed: " + e.getMessage());
+        }
+        return "";
+    }
 }
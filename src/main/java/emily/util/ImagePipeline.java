@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import emily.main.BotConfig;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+
+/**
+ * Gets images ready for uploading without going through the disk
+ * <p>
+ * Downloads are read into memory and cut off once they're larger than allowed.
+ * Images which are already jpg, png or gif and small enough are uploaded as they are,
+ * only other formats or images which are too large are decoded and encoded as jpg.
+ */
+public class ImagePipeline {
+    private static final int TIMEOUT = 15_000;
+    private static final float JPG_QUALITY = 0.85F;
+
+    /**
+     * downloads an image and prepares it for uploading
+     *
+     * @param url      the url of the image
+     * @param baseName the name of the file without extension
+     * @return the image ready for upload
+     * @throws IOException when the download failed, is too large or is not an image
+     */
+    public static Upload fromUrl(String url, String baseName) throws IOException {
+        return prepare(download(url, BotConfig.IMAGE_MAX_DOWNLOAD_SIZE), baseName);
+    }
+
+    /**
+     * reads the response of a url into memory
+     *
+     * @param url      the url
+     * @param maxBytes max size of the response
+     * @return the response
+     * @throws IOException when the request failed or the response is larger than maxBytes
+     */
+    public static byte[] download(String url, long maxBytes) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestProperty("User-Agent", BotConfig.USER_AGENT);
+        long length = connection.getContentLengthLong();
+        if (length > maxBytes) {
+            throw new IOException(String.format("%s is too large (%s bytes)", url, length));
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 64 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    throw new IOException(String.format("%s is larger than %s bytes", url, maxBytes));
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @param data     the image
+     * @param baseName the name of the file without extension
+     * @return the image as it is if it can be uploaded like that, otherwise encoded as jpg
+     * @throws IOException when the data is not an image or too large even after encoding
+     */
+    public static Upload prepare(byte[] data, String baseName) throws IOException {
+        String format = detectFormat(data);
+        if (format != null && data.length <= BotConfig.IMAGE_MAX_UPLOAD_SIZE) {
+            return new Upload(data, baseName + "." + format);
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Not an image that can be read");
+        }
+        byte[] jpg = encodeJpg(image);
+        if (jpg.length > BotConfig.IMAGE_MAX_UPLOAD_SIZE) {
+            throw new IOException(String.format("Image is too large to upload (%s bytes)", jpg.length));
+        }
+        return new Upload(jpg, baseName + ".jpg");
+    }
+
+    /**
+     * @param data the file contents
+     * @return jpg, png or gif; null for anything else
+     */
+    public static String detectFormat(byte[] data) {
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF) {
+            return "jpg";
+        }
+        if (data.length >= 8 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return "png";
+        }
+        if (data.length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8') {
+            return "gif";
+        }
+        return null;
+    }
+
+    /**
+     * @param image the image
+     * @return the image encoded as png
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param image the image, transparency is replaced by white
+     * @return the image encoded as jpg
+     */
+    public static byte[] encodeJpg(BufferedImage image) throws IOException {
+        BufferedImage rgb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            g.drawImage(image, 0, 0, Color.WHITE, null);
+            g.dispose();
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+        if (!writers.hasNext()) {
+            throw new IOException("No jpg writer available");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPG_QUALITY);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The contents and name of a file to upload
+     */
+    public static class Upload {
+        public final byte[] data;
+        public final String fileName;
+
+        public Upload(byte[] data, String fileName) {
+            this.data = data;
+            this.fileName = fileName;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the duration of ogg (opus/vorbis) files without decoding them
+ * <p>
+ * The first page tells the codec and its sample rate, the granule position of the last page is the amount of
+ * samples in the stream. Only the first and last 64KB of the file are read.
+ */
+public class OggUtil {
+    private static final byte[] CAPTURE_PATTERN = "OggS".getBytes(StandardCharsets.US_ASCII);
+    private static final int PAGE_HEADER_SIZE = 27;
+    //a page can't be larger than the header + 255 segments of 255 bytes
+    private static final int MAX_PAGE_SIZE = PAGE_HEADER_SIZE + 255 + 255 * 255;
+    private static final int OPUS_SAMPLE_RATE = 48000;
+
+    /**
+     * @param file the file to check
+     * @return duration in seconds, or -1 if it isn't an ogg opus/vorbis file
+     */
+    public static double getDuration(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length < PAGE_HEADER_SIZE) {
+                return -1;
+            }
+            byte[] head = new byte[(int) Math.min(length, MAX_PAGE_SIZE)];
+            in.readFully(head);
+            if (!startsWith(head, 0, CAPTURE_PATTERN)) {
+                return -1;
+            }
+            int serial = readInt(head, 14);
+            int payload = PAGE_HEADER_SIZE + (head[26] & 0xFF);
+            long sampleRate;
+            long preSkip = 0;
+            if (startsWith(head, payload, "OpusHead".getBytes(StandardCharsets.US_ASCII)) && head.length >= payload + 12) {
+                sampleRate = OPUS_SAMPLE_RATE;
+                preSkip = (head[payload + 10] & 0xFF) | ((head[payload + 11] & 0xFF) << 8);
+            } else if (head.length >= payload + 16 && head[payload] == 1 && startsWith(head, payload + 1, "vorbis".getBytes(StandardCharsets.US_ASCII))) {
+                sampleRate = readInt(head, payload + 12) & 0xFFFFFFFFL;
+            } else {
+                return -1;
+            }
+            if (sampleRate <= 0) {
+                return -1;
+            }
+            long granule = lastGranule(in, length, serial);
+            if (granule <= preSkip) {
+                return -1;
+            }
+            return (granule - preSkip) / (double) sampleRate;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * searches backwards from the end of the file for the last page of the stream with a granule position
+     */
+    private static long lastGranule(RandomAccessFile in, long length, int serial) throws IOException {
+        int tailSize = (int) Math.min(length, MAX_PAGE_SIZE);
+        byte[] tail = new byte[tailSize];
+        in.seek(length - tailSize);
+        in.readFully(tail);
+        for (int i = tailSize - PAGE_HEADER_SIZE; i >= 0; i--) {
+            if (tail[i] == 'O' && startsWith(tail, i, CAPTURE_PATTERN) && tail[i + 4] == 0 && readInt(tail, i + 14) == serial) {
+                long granule = readLong(tail, i + 6);
+                if (granule != -1) {
+                    return granule;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (offset < 0 || offset + prefix.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return (readInt(data, offset) & 0xFFFFFFFFL) | ((long) readInt(data, offset + 4) << 32);
+    }
+}
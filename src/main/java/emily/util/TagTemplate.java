@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.util;
+
+import net.dv8tion.jda.core.OnlineStatus;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.MessageChannel;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A text with %tags% which has been split into literal parts and tags once,
+ * so it can be rendered in a single pass. Only the tags which occur in the text are evaluated.
+ * <p>
+ * \% is an escaped %, tags which are not known are kept as they are
+ */
+public class TagTemplate {
+    private static final Map<String, Tag> TAGS = new HashMap<>();
+
+    static {
+        for (Tag tag : Tag.values()) {
+            if (tag.key != null) {
+                TAGS.put(tag.key, tag);
+            }
+        }
+    }
+
+    private final Tag[] tags;
+    private final String[] texts;
+    private final int[] argIndexes;
+    private final boolean hasTags;
+
+    private TagTemplate(List<Tag> tags, List<String> texts, List<Integer> argIndexes) {
+        this.tags = tags.toArray(new Tag[tags.size()]);
+        this.texts = texts.toArray(new String[texts.size()]);
+        this.argIndexes = new int[argIndexes.size()];
+        boolean anyTag = false;
+        for (int i = 0; i < this.argIndexes.length; i++) {
+            this.argIndexes[i] = argIndexes.get(i);
+            anyTag |= this.tags[i] != Tag.TEXT;
+        }
+        this.hasTags = anyTag;
+    }
+
+    /**
+     * splits the input into literal text and tags
+     *
+     * @param input the text with tags
+     * @return the compiled template
+     */
+    public static TagTemplate compile(String input) {
+        List<Tag> tags = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<Integer> argIndexes = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        final int length = input.length();
+        int i = 0;
+        while (i < length) {
+            char c = input.charAt(i);
+            if (c == '\\' && i + 1 < length && input.charAt(i + 1) == '%') {
+                literal.append('%');
+                i += 2;
+                continue;
+            }
+            if (c == '%') {
+                int end = input.indexOf('%', i + 1);
+                if (end > i + 1) {
+                    String key = input.substring(i + 1, end);
+                    Tag tag = TAGS.get(key);
+                    int argIndex = tag == null ? parseArgIndex(key) : 0;
+                    if (tag != null || argIndex > 0) {
+                        if (literal.length() > 0) {
+                            tags.add(Tag.TEXT);
+                            texts.add(literal.toString());
+                            argIndexes.add(0);
+                            literal.setLength(0);
+                        }
+                        tags.add(tag != null ? tag : Tag.ARG);
+                        texts.add(input.substring(i, end + 1));
+                        argIndexes.add(argIndex);
+                        i = end + 1;
+                        continue;
+                    }
+                }
+            }
+            literal.append(c);
+            i++;
+        }
+        if (literal.length() > 0) {
+            tags.add(Tag.TEXT);
+            texts.add(literal.toString());
+            argIndexes.add(0);
+        }
+        return new TagTemplate(tags, texts, argIndexes);
+    }
+
+    /**
+     * @param key the part between the %'s
+     * @return N for argN, 0 if its not an argument tag
+     */
+    private static int parseArgIndex(String key) {
+        if (!key.startsWith("arg") || key.length() == 3 || key.length() > 6) {
+            return 0;
+        }
+        int index = 0;
+        for (int i = 3; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the tags with their values
+     *
+     * @param user     user info for user related tags
+     * @param channel  channel/guild info
+     * @param userArgs arguments for the %args% and %argN% tags, may be null
+     * @return formatted string
+     */
+    public String render(User user, MessageChannel channel, String[] userArgs) {
+        if (!hasTags) {
+            return tags.length == 0 ? "" : (tags.length == 1 ? texts[0] : String.join("", texts));
+        }
+        Guild guild = channel instanceof TextChannel ? ((TextChannel) channel).getGuild() : null;
+        List<Member> onlineMembers = null;
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < tags.length; i++) {
+            Tag tag = tags[i];
+            if (tag == Tag.TEXT) {
+                out.append(texts[i]);
+                continue;
+            }
+            if (guild == null && tag.guildOnly) {
+                out.append(texts[i]);
+                continue;
+            }
+            switch (tag) {
+                case USER:
+                    out.append(user.getName());
+                    break;
+                case USER_MENTION:
+                    out.append(user.getAsMention());
+                    break;
+                case USER_ID:
+                    out.append(user.getId());
+                    break;
+                case NICK:
+                    Member member = guild != null ? guild.getMember(user) : null;
+                    out.append(member != null ? member.getEffectiveName() : user.getName());
+                    break;
+                case DISCRIM:
+                    out.append(user.getDiscriminator());
+                    break;
+                case GUILD:
+                    out.append(guild == null ? "Private" : guild.getName());
+                    break;
+                case GUILD_ID:
+                    out.append(guild == null ? "0" : guild.getId());
+                    break;
+                case GUILD_USERS:
+                    out.append(guild == null ? "0" : Integer.toString(guild.getMembers().size()));
+                    break;
+                case CHANNEL:
+                    out.append(guild == null ? "Private" : channel.getName());
+                    break;
+                case CHANNEL_ID:
+                    out.append(guild == null ? "0" : channel.getId());
+                    break;
+                case CHANNEL_MENTION:
+                    out.append(guild == null ? "Private" : ((TextChannel) channel).getAsMention());
+                    break;
+                case ARGS:
+                    if (userArgs == null) {
+                        out.append(texts[i]);
+                    } else {
+                        appendJoined(out, userArgs);
+                    }
+                    break;
+                case ARG:
+                    if (userArgs == null || argIndexes[i] > userArgs.length) {
+                        out.append(texts[i]);
+                    } else {
+                        out.append(userArgs[argIndexes[i] - 1]);
+                    }
+                    break;
+                case RAND_USER:
+                    List<Member> members = guild.getMembers();
+                    out.append(members.get(ThreadLocalRandom.current().nextInt(members.size())).getEffectiveName());
+                    break;
+                case RAND_USER_ONLINE:
+                    if (onlineMembers == null) {
+                        onlineMembers = new ArrayList<>();
+                        for (Member m : guild.getMembers()) {
+                            if (m.getOnlineStatus().equals(OnlineStatus.ONLINE)) {
+                                onlineMembers.add(m);
+                            }
+                        }
+                    }
+                    if (!onlineMembers.isEmpty()) {
+                        out.append(onlineMembers.get(ThreadLocalRandom.current().nextInt(onlineMembers.size())).getEffectiveName());
+                    }
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void appendJoined(StringBuilder out, String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            out.append(args[i]);
+        }
+    }
+
+    private enum Tag {
+        TEXT(null, false),
+        USER("user", false),
+        USER_MENTION("user-mention", false),
+        USER_ID("user-id", false),
+        NICK("nick", false),
+        DISCRIM("discrim", false),
+        GUILD("guild", false),
+        GUILD_ID("guild-id", false),
+        GUILD_USERS("guild-users", false),
+        CHANNEL("channel", false),
+        CHANNEL_ID("channel-id", false),
+        CHANNEL_MENTION("channel-mention", false),
+        ARGS("args", true),
+        ARG(null, true),
+        RAND_USER("rand-user", true),
+        RAND_USER_ONLINE("rand-user-online", true);
+
+        private final String key;
+        private final boolean guildOnly;
+
+        Tag(String key, boolean guildOnly) {
+            this.key = key;
+            this.guildOnly = guildOnly;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package emily.util;
 
+import emily.db.WebDb;
 import emily.db.controllers.CMusic;
 import emily.db.model.OMusic;
 import emily.main.BotConfig;
@@ -24,13 +25,21 @@ import org.json.JSONObject;
 import sun.misc.IOUtils;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -133,6 +142,30 @@ public class YTUtil {
         if (record.fileExists == 0 || record.duration > 0) {
             return false;
         }
+        int duration = probeDuration(new File(record.filename));
+        if (duration != 0) {
+            record.duration = duration;
+            CMusic.update(record);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the duration of a music file, ogg files are read directly; other files go through ffprobe
+     *
+     * @param file the music file
+     * @return duration in seconds or 0 if unknown
+     */
+    public static int probeDuration(File file) {
+        double duration = OggUtil.getDuration(file);
+        if (duration >= 0) {
+            return (int) duration;
+        }
+        return getDurationFromFfprobe(file.getPath());
+    }
+
+    private static int getDurationFromFfprobe(String filename) {
         Process ffprobeProcess = null;
         try {
             ffprobeProcess = new ProcessBuilder().command(Arrays.asList(
@@ -140,19 +173,14 @@ public class YTUtil {
                     "-show_format",
                     "-print_format", "json",
                     "-loglevel", "0",
-                    "-i", record.filename
+                    "-i", filename
             )).start();
             InputStream ffprobeStream = ffprobeProcess.getInputStream();
             byte[] infoData = IOUtils.readFully(ffprobeStream, -1, false);
             ffprobeProcess.waitFor(30, TimeUnit.SECONDS);
             if (infoData != null && infoData.length > 0) {
                 JSONObject json = new JSONObject(new String(infoData)).getJSONObject("format");
-                int duration = (int) json.optDouble("duration", 0);
-                if (duration != 0) {
-                    record.duration = duration;
-                    CMusic.update(record);
-                    return true;
-                }
+                return (int) json.optDouble("duration", 0);
             }
         } catch (IOException | InterruptedException ignored) {
         } finally {
@@ -160,6 +188,53 @@ public class YTUtil {
                 ffprobeProcess.destroyForcibly();
             }
         }
-        return false;
+        return 0;
+    }
+
+    /**
+     * Fills in the duration of all tracks which don't have one yet
+     *
+     * @param threads amount of files to probe at the same time
+     * @return amount of tracks updated
+     */
+    public static int backfillDurations(int threads) throws InterruptedException {
+        List<OMusic> records = new ArrayList<>();
+        try (ResultSet rs = WebDb.get().select("SELECT id, filename FROM music WHERE duration = 0 AND file_exists = 1")) {
+            while (rs.next()) {
+                OMusic record = new OMusic();
+                record.id = rs.getInt("id");
+                record.filename = rs.getString("filename");
+                records.add(record);
+            }
+            rs.getStatement().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        List<Object[]> updates = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        for (OMusic record : records) {
+            executor.execute(() -> {
+                File file = new File(record.filename);
+                if (!file.exists()) {
+                    return;
+                }
+                int duration = probeDuration(file);
+                if (duration > 0) {
+                    updates.add(new Object[]{duration, record.id});
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        synchronized (updates) {
+            try {
+                WebDb.get().queryBatch("UPDATE music SET duration = ? WHERE id = ?", updates);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return 0;
+            }
+            return updates.size();
+        }
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 github.com/kaaz
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package emily.handler;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AutoReplyHandlerTest {
+
+    /**
+     * every text matched by the pattern has to contain the prefilter literal, otherwise the reply would never fire
+     */
+    private static void assertPrefilterMatches(String regex, String... texts) {
+        Pattern pattern = Pattern.compile(regex, Pattern.DOTALL + Pattern.CASE_INSENSITIVE);
+        String literal = AutoReplyHandler.requiredLiteral(regex);
+        for (String text : texts) {
+            assertTrue(regex + " should match " + text, pattern.matcher(text).find());
+            if (literal != null) {
+                assertTrue(regex + " gave literal '" + literal + "' which is not in " + text,
+                        text.toLowerCase(Locale.ROOT).contains(literal.toLowerCase(Locale.ROOT)));
+            }
+        }
+    }
+
+    @Test
+    public void plainText() {
+        assertEquals("hello world", AutoReplyHandler.requiredLiteral("hello world"));
+        assertPrefilterMatches("hello world", "well HELLO WORLD!");
+    }
+
+    @Test
+    public void quantifiers() {
+        assertEquals("hell", AutoReplyHandler.requiredLiteral("hello?"));
+        assertEquals("there", AutoReplyHandler.requiredLiteral("hi*there"));
+        assertEquals("long", AutoReplyHandler.requiredLiteral("a{2,3}long"));
+        assertPrefilterMatches("hello?", "hell");
+        assertPrefilterMatches("hi*there", "hthere", "hiiithere");
+        assertPrefilterMatches("a{2,3}long", "aalong");
+        assertPrefilterMatches("ab+cde", "abbbcde");
+    }
+
+    @Test
+    public void groupsAndClasses() {
+        assertEquals(" world", AutoReplyHandler.requiredLiteral("(hi|hello) world"));
+        assertEquals("hello", AutoReplyHandler.requiredLiteral("[abc]hello"));
+        assertPrefilterMatches("(hi|hello) world", "hi world");
+        assertPrefilterMatches("[abc]hello", "bhello");
+        assertPrefilterMatches("[\\]x]hello", "]hello");
+        assertPrefilterMatches("(?<w>a)\\k<w>hello", "aahello");
+        assertPrefilterMatches("([)]x)hello", ")xhello");
+    }
+
+    @Test
+    public void nestedClasses() {
+        assertNull(AutoReplyHandler.requiredLiteral("[a-z&&[^x]]hello"));
+        assertNull(AutoReplyHandler.requiredLiteral("[a[b]]hello"));
+        assertPrefilterMatches("[a-z&&[^x]]hello", "ahello");
+        assertPrefilterMatches("[a[b]]hello", "bhello");
+    }
+
+    @Test
+    public void escapes() {
+        assertEquals("cdef", AutoReplyHandler.requiredLiteral("ab\\dcdef"));
+        assertEquals("a.b", AutoReplyHandler.requiredLiteral("a\\.b"));
+        assertPrefilterMatches("ab\\dcdef", "ab1cdef");
+        assertPrefilterMatches("a\\.b", "a.b");
+        assertPrefilterMatches("\\bhello\\b", "say hello there");
+        assertPrefilterMatches("hi\\s+there", "hi   there");
+    }
+
+    @Test
+    public void multiCharacterEscapes() {
+        String[][] cases = {
+                {"\\x41bcdef", "abcdef"},
+                {"\\u0041bcdef", "abcdef"},
+                {"\\cJhello", "\nhello"},
+                {"(?<w>a)\\k<w>hello", "aahello"},
+                {"\\p{L}hello", "xhello"},
+                {"\\0101bcdef", "abcdef"},
+                {"\\Qa.b\\Ehello", "a.bhello"},
+                {"(a)\\1hello", "aahello"},
+                {"([\\c]])hello", "\u001dhello"},
+        };
+        for (String[] c : cases) {
+            assertPrefilterMatches(c[0], c[1]);
+        }
+        assertNull(AutoReplyHandler.requiredLiteral("\\x41bcdef"));
+        assertNull(AutoReplyHandler.requiredLiteral("\\u0041bcdef"));
+        assertNull(AutoReplyHandler.requiredLiteral("\\cJhello"));
+    }
+}